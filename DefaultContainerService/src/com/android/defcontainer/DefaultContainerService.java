@@ -49,9 +49,11 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
@@ -66,6 +68,7 @@ import javax.crypto.NoSuchPaddingException;
 import libcore.io.ErrnoException;
 import libcore.io.IoUtils;
 import libcore.io.Libcore;
+import libcore.io.OsConstants;
 import libcore.io.Streams;
 import libcore.io.StructStatFs;
 
@@ -82,6 +85,19 @@ public class DefaultContainerService extends IntentService {
 
     private static final String LIB_DIR_NAME = "lib";
 
+    /** Size of the buffer used to copy and decrypt streams. */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest range handed to FileChannel.transferTo() at once, which maps
+     * the range of the source; keeps large APKs from needing a mapping of
+     * their whole size.
+     */
+    private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    /** Copy buffer kept between copies; concurrent copies allocate their own. */
+    private static byte[] sCopyBuffer;
+
     private IMediaContainerService.Stub mBinder = new IMediaContainerService.Stub() {
         /**
          * Creates a new container and copies resource there.
@@ -418,23 +434,72 @@ public class DefaultContainerService extends IntentService {
         return newCachePath;
     }
 
-    private static void copyToFile(InputStream inputStream, OutputStream out) throws IOException {
-        byte[] buffer = new byte[16384];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) >= 0) {
-            out.write(buffer, 0, bytesRead);
+    static void copyToFile(InputStream inputStream, OutputStream out) throws IOException {
+        byte[] buffer = obtainCopyBuffer();
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) >= 0) {
+                out.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            releaseCopyBuffer(buffer);
+        }
+    }
+
+    private static synchronized byte[] obtainCopyBuffer() {
+        final byte[] buffer = sCopyBuffer;
+        if (buffer != null) {
+            sCopyBuffer = null;
+            return buffer;
         }
+        return new byte[COPY_BUFFER_SIZE];
+    }
+
+    private static synchronized void releaseCopyBuffer(byte[] buffer) {
+        sCopyBuffer = buffer;
+    }
+
+    /**
+     * Copies the rest of a regular file to 'out' in the kernel, without
+     * passing the data through user-space buffers.  Returns false, having
+     * copied nothing, if 'in' is not a regular file (e.g. a pipe from a
+     * content provider).
+     */
+    static boolean transferFile(FileInputStream in, FileOutputStream out)
+            throws IOException {
+        try {
+            if (!OsConstants.S_ISREG(Libcore.os.fstat(in.getFD()).st_mode)) {
+                return false;
+            }
+        } catch (ErrnoException e) {
+            return false;
+        }
+
+        final FileChannel src = in.getChannel();
+        final FileChannel dst = out.getChannel();
+        final long size = src.size();
+        long position = src.position();
+        while (position < size) {
+            final long count = src.transferTo(position,
+                    Math.min(size - position, MAX_TRANSFER_SIZE), dst);
+            if (count <= 0) {
+                throw new IOException("transfer stalled at " + position + " of " + size);
+            }
+            position += count;
+        }
+        src.position(position);
+        return true;
     }
 
     private void copyFile(Uri pPackageURI, OutputStream outStream,
             ContainerEncryptionParams encryptionParams) throws FileNotFoundException, IOException,
             DigestException {
         String scheme = pPackageURI.getScheme();
+        FileInputStream fileStream = null;
         InputStream inStream = null;
         try {
             if (scheme == null || scheme.equals("file")) {
-                final InputStream is = new FileInputStream(new File(pPackageURI.getPath()));
-                inStream = new BufferedInputStream(is);
+                fileStream = new FileInputStream(new File(pPackageURI.getPath()));
             } else if (scheme.equals("content")) {
                 final ParcelFileDescriptor fd;
                 try {
@@ -453,13 +518,33 @@ public class DefaultContainerService extends IntentService {
                     if (localLOGV) {
                         Slog.i(TAG, "Opened file descriptor from download service.");
                     }
-                    inStream = new ParcelFileDescriptor.AutoCloseInputStream(fd);
+                    fileStream = new ParcelFileDescriptor.AutoCloseInputStream(fd);
                 }
             } else {
                 Slog.e(TAG, "Package URI is not 'file:' or 'content:' - " + pPackageURI);
                 throw new FileNotFoundException("Package URI is not 'file:' or 'content:'");
             }
 
+            /*
+             * A plain package going from one file descriptor to another is
+             * copied by the kernel.  Everything else, including a pipe from a
+             * content provider, goes through the copy buffer.
+             */
+            if (encryptionParams == null && outStream instanceof FileOutputStream
+                    && transferFile(fileStream, (FileOutputStream) outStream)) {
+                return;
+            }
+
+            /*
+             * The decrypting streams read in small pieces, so give them a
+             * buffer of the copy buffer's size.
+             */
+            if (encryptionParams != null) {
+                inStream = new BufferedInputStream(fileStream, COPY_BUFFER_SIZE);
+            } else {
+                inStream = fileStream;
+            }
+
             /*
              * If this resource is encrypted, get the decrypted stream version
              * of it.
@@ -483,6 +568,7 @@ public class DefaultContainerService extends IntentService {
             }
         } finally {
             IoUtils.closeQuietly(inStream);
+            IoUtils.closeQuietly(fileStream);
         }
     }
 
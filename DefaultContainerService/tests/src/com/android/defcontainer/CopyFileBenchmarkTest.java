@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.defcontainer;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares copying an APK through a user-space buffer, as is done for
+ * streams that are not regular files, with
+ * {@link DefaultContainerService#transferFile}, across a range of APK
+ * sizes.  The source is read from the page cache after the first run, so
+ * the numbers measure the copy itself rather than the storage.  Throughput
+ * for each size is logged.
+ */
+@LargeTest
+public class CopyFileBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "CopyFileBenchmarkTest";
+
+    private static final int[] SIZES_MB = { 1, 4, 16, 64 };
+    private static final int WARMUP_RUNS = 1;
+    private static final int RUNS = 5;
+
+    private File mSource;
+    private File mTarget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = new File(getContext().getCacheDir(), "bench_source.apk");
+        mTarget = new File(getContext().getCacheDir(), "bench_target.apk");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.delete();
+        mTarget.delete();
+        super.tearDown();
+    }
+
+    public void testCopyThroughput() throws Exception {
+        for (int sizeMb : SIZES_MB) {
+            final long size = sizeMb * 1024L * 1024L;
+            writeSource(size);
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                streamCopy(size);
+                transfer(size);
+            }
+
+            long streamTotal = 0;
+            long transferTotal = 0;
+            for (int i = 0; i < RUNS; i++) {
+                streamTotal += streamCopy(size);
+                transferTotal += transfer(size);
+            }
+            assertSameContents();
+            Log.i(TAG, sizeMb + " MB: stream copy " + throughput(size, streamTotal)
+                    + " MB/s, transferFile " + throughput(size, transferTotal)
+                    + " MB/s avg over " + RUNS + " runs");
+        }
+    }
+
+    private long streamCopy(long size) throws IOException {
+        final FileInputStream in = new FileInputStream(mSource);
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try {
+            long begin = System.nanoTime();
+            DefaultContainerService.copyToFile(new BufferedInputStream(in, 64 * 1024), out);
+            out.getFD().sync();
+            long elapsed = System.nanoTime() - begin;
+            assertEquals(size, mTarget.length());
+            return elapsed;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private long transfer(long size) throws IOException {
+        final FileInputStream in = new FileInputStream(mSource);
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try {
+            long begin = System.nanoTime();
+            assertTrue(DefaultContainerService.transferFile(in, out));
+            out.getFD().sync();
+            long elapsed = System.nanoTime() - begin;
+            assertEquals(size, mTarget.length());
+            return elapsed;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private void writeSource(long size) throws IOException {
+        final byte[] chunk = new byte[1024 * 1024];
+        new Random(0).nextBytes(chunk);
+        final FileOutputStream out = new FileOutputStream(mSource);
+        try {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertSameContents() throws IOException {
+        final byte[] expected = new byte[1024 * 1024];
+        final byte[] actual = new byte[expected.length];
+        final FileInputStream source = new FileInputStream(mSource);
+        final FileInputStream target = new FileInputStream(mTarget);
+        try {
+            int count;
+            while ((count = source.read(expected)) > 0) {
+                int read = 0;
+                while (read < count) {
+                    int n = target.read(actual, read, count - read);
+                    assertTrue(n > 0);
+                    read += n;
+                }
+                for (int i = 0; i < count; i++) {
+                    assertEquals(expected[i], actual[i]);
+                }
+            }
+            assertEquals(-1, target.read());
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+
+    private static long throughput(long size, long totalNanos) {
+        return size * RUNS * 1000L / totalNanos;
+    }
+}
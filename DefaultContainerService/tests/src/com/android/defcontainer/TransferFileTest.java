@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.defcontainer;
+
+import android.os.ParcelFileDescriptor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link DefaultContainerService#transferFile}, which copies
+ * regular files in the kernel and must leave anything else to the
+ * stream copy.
+ */
+@MediumTest
+public class TransferFileTest extends AndroidTestCase {
+    // Larger than one transferTo() range, and not a multiple of it.
+    private static final int SIZE = 9 * 1024 * 1024 + 1234;
+
+    private File mSource;
+    private File mTarget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = new File(getContext().getCacheDir(), "transfer_source.apk");
+        mTarget = new File(getContext().getCacheDir(), "transfer_target.apk");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.delete();
+        mTarget.delete();
+        super.tearDown();
+    }
+
+    public void testCopiesEveryByte() throws Exception {
+        final byte[] data = writeSource(SIZE);
+
+        final FileInputStream in = new FileInputStream(mSource);
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try {
+            assertTrue(DefaultContainerService.transferFile(in, out));
+            assertEquals(SIZE, in.getChannel().position());
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertTrue(Arrays.equals(data, readTarget()));
+    }
+
+    public void testStartsAtSourcePosition() throws Exception {
+        final byte[] data = writeSource(SIZE);
+        final int skip = 4096 + 17;
+
+        final FileInputStream in = new FileInputStream(mSource);
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try {
+            assertEquals(skip, in.read(new byte[skip]));
+            assertTrue(DefaultContainerService.transferFile(in, out));
+            assertEquals(SIZE, in.getChannel().position());
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, skip, SIZE), readTarget()));
+    }
+
+    public void testPipeIsLeftToStreamCopy() throws Exception {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        final byte[] data = new byte[1024];
+        new Random(0).nextBytes(data);
+
+        // Less than the pipe buffer, so this does not block.
+        final OutputStream writer = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+        try {
+            writer.write(data);
+        } finally {
+            writer.close();
+        }
+
+        final FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try {
+            assertFalse(DefaultContainerService.transferFile(in, out));
+
+            // Nothing was consumed from the pipe, so the stream copy gets it all.
+            final byte[] rest = new byte[data.length];
+            int read = 0;
+            int count;
+            while (read < rest.length && (count = in.read(rest, read, rest.length - read)) > 0) {
+                read += count;
+            }
+            assertEquals(data.length, read);
+            assertTrue(Arrays.equals(data, rest));
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertEquals(0, mTarget.length());
+    }
+
+    private byte[] writeSource(int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        final FileOutputStream out = new FileOutputStream(mSource);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return data;
+    }
+
+    private byte[] readTarget() throws IOException {
+        final byte[] data = new byte[(int) mTarget.length()];
+        final FileInputStream in = new FileInputStream(mTarget);
+        try {
+            int read = 0;
+            int count;
+            while (read < data.length && (count = in.read(data, read, data.length - read)) > 0) {
+                read += count;
+            }
+            assertEquals(data.length, read);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
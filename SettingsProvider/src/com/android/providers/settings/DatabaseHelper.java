@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -30,6 +31,7 @@ import android.database.sqlite.SQLiteStatement;
 import android.media.AudioManager;
 import android.media.AudioService;
 import android.net.ConnectivityManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.Settings;
 import android.provider.Settings.Secure;
@@ -48,8 +50,13 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Database helper class for {@link SettingsProvider}.
@@ -67,6 +74,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     private Context mContext;
 
+    private final boolean mLegacyDefaults;
+
+    // Step timings of the last onUpgrade() in this process, for dump().
+    private static volatile String sLastUpgradeSummary;
+
     private static final HashSet<String> mValidTables = new HashSet<String>();
 
     static {
@@ -82,8 +94,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests and benchmarks, which must not touch the real database.
+    DatabaseHelper(Context context, String name) {
+        this(context, name, false);
+    }
+
+    // For benchmarks: 'legacyDefaults' makes onCreate() insert each default
+    // setting as soon as it is read, as it did before defaults were batched.
+    DatabaseHelper(Context context, String name, boolean legacyDefaults) {
+        super(context, name, null, DATABASE_VERSION);
         mContext = context;
+        mLegacyDefaults = legacyDefaults;
         setWriteAheadLoggingEnabled(true);
     }
 
@@ -147,13 +171,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + currentVersion);
 
         int upgradeVersion = oldVersion;
+        final UpgradeTimer timer = new UpgradeTimer(oldVersion);
 
         // Pattern for upgrade blocks:
         //
         //    if (upgradeVersion == [the DATABASE_VERSION you set] - 1) {
         //        .. your upgrade logic..
-        //        upgradeVersion = [the DATABASE_VERSION you set]
+        //        upgradeVersion = timer.reached([the DATABASE_VERSION you set]);
         //    }
+        //
+        // Note that all of onUpgrade() already runs inside the single
+        // transaction SQLiteOpenHelper opens around it, so an interrupted
+        // upgrade rolls back to oldVersion as a whole.
 
         if (upgradeVersion == 20) {
             /*
@@ -164,18 +193,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
              */
             loadVibrateSetting(db, true);
 
-            upgradeVersion = 21;
+            upgradeVersion = timer.reached(21);
         }
 
         if (upgradeVersion < 22) {
-            upgradeVersion = 22;
             // Upgrade the lock gesture storage location and format
             upgradeLockPatternLocation(db);
+            upgradeVersion = timer.reached(22);
         }
 
         if (upgradeVersion < 23) {
             db.execSQL("UPDATE favorites SET iconResource=0 WHERE iconType=0");
-            upgradeVersion = 23;
+            upgradeVersion = timer.reached(23);
         }
 
         if (upgradeVersion == 23) {
@@ -194,7 +223,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 24;
+            upgradeVersion = timer.reached(24);
         }
 
         if (upgradeVersion == 24) {
@@ -209,7 +238,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 25;
+            upgradeVersion = timer.reached(25);
         }
 
         if (upgradeVersion == 25) {
@@ -221,7 +250,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 26;
+            upgradeVersion = timer.reached(26);
         }
 
         if (upgradeVersion == 26) {
@@ -233,7 +262,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 27;
+            upgradeVersion = timer.reached(27);
         }
 
         if (upgradeVersion == 27) {
@@ -271,7 +300,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     Settings.Secure.WIFI_WATCHDOG_PING_TIMEOUT_MS,
                 };
             moveFromSystemToSecure(db, settingsToMove);
-            upgradeVersion = 28;
+            upgradeVersion = timer.reached(28);
         }
 
         if (upgradeVersion == 28 || upgradeVersion == 29) {
@@ -296,7 +325,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
             }
 
-            upgradeVersion = 30;
+            upgradeVersion = timer.reached(30);
         }
 
         if (upgradeVersion == 30) {
@@ -313,7 +342,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 31;
+            upgradeVersion = timer.reached(31);
         }
 
         if (upgradeVersion == 31) {
@@ -336,7 +365,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 32;
+            upgradeVersion = timer.reached(32);
         }
 
         if (upgradeVersion == 32) {
@@ -354,7 +383,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     db.endTransaction();
                 }
             }
-            upgradeVersion = 33;
+            upgradeVersion = timer.reached(33);
         }
 
         if (upgradeVersion == 33) {
@@ -366,7 +395,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 34;
+            upgradeVersion = timer.reached(34);
         }
 
         if (upgradeVersion == 34) {
@@ -381,14 +410,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 35;
+            upgradeVersion = timer.reached(35);
         }
             // due to a botched merge from donut to eclair, the initialization of ASSISTED_GPS_ENABLED
             // was accidentally done out of order here.
             // to fix this, ASSISTED_GPS_ENABLED is now initialized while upgrading from 38 to 39,
             // and we intentionally do nothing from 35 to 36 now.
         if (upgradeVersion == 35) {
-            upgradeVersion = 36;
+            upgradeVersion = timer.reached(36);
         }
 
         if (upgradeVersion == 36) {
@@ -409,7 +438,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 37;
+            upgradeVersion = timer.reached(37);
         }
 
         if (upgradeVersion == 37) {
@@ -425,7 +454,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 38;
+            upgradeVersion = timer.reached(38);
         }
 
         if (upgradeVersion == 38) {
@@ -440,12 +469,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
             }
 
-            upgradeVersion = 39;
+            upgradeVersion = timer.reached(39);
         }
 
         if (upgradeVersion == 39) {
             upgradeAutoBrightness(db);
-            upgradeVersion = 40;
+            upgradeVersion = timer.reached(40);
         }
 
         if (upgradeVersion == 40) {
@@ -467,7 +496,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 41;
+            upgradeVersion = timer.reached(41);
         }
 
         if (upgradeVersion == 41) {
@@ -487,7 +516,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 42;
+            upgradeVersion = timer.reached(42);
         }
 
         if (upgradeVersion == 42) {
@@ -506,7 +535,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 43;
+            upgradeVersion = timer.reached(43);
         }
 
         if (upgradeVersion == 43) {
@@ -525,7 +554,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 44;
+            upgradeVersion = timer.reached(44);
         }
 
         if (upgradeVersion == 44) {
@@ -534,7 +563,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
              */
             db.execSQL("DROP TABLE IF EXISTS gservices");
             db.execSQL("DROP INDEX IF EXISTS gservicesIndex1");
-            upgradeVersion = 45;
+            upgradeVersion = timer.reached(45);
         }
 
         if (upgradeVersion == 45) {
@@ -555,7 +584,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 46;
+            upgradeVersion = timer.reached(46);
         }
 
         if (upgradeVersion == 46) {
@@ -570,7 +599,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-           upgradeVersion = 47;
+           upgradeVersion = timer.reached(47);
        }
 
 
@@ -586,7 +615,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-           upgradeVersion = 48;
+           upgradeVersion = timer.reached(48);
        }
 
        if (upgradeVersion == 48) {
@@ -594,7 +623,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             * Default recognition service no longer initialized here,
             * moved to RecognitionManagerService.
             */
-           upgradeVersion = 49;
+           upgradeVersion = timer.reached(49);
        }
 
        if (upgradeVersion == 49) {
@@ -613,14 +642,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 if (stmt != null) stmt.close();
             }
 
-           upgradeVersion = 50;
+           upgradeVersion = timer.reached(50);
        }
 
        if (upgradeVersion == 50) {
            /*
             * Install location no longer initiated here.
             */
-           upgradeVersion = 51;
+           upgradeVersion = timer.reached(51);
        }
 
        if (upgradeVersion == 51) {
@@ -637,7 +666,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                    "lockscreen.password_salt"
            };
            moveFromSystemToSecure(db, settingsToMove);
-           upgradeVersion = 52;
+           upgradeVersion = timer.reached(52);
        }
 
         if (upgradeVersion == 52) {
@@ -655,14 +684,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 if (stmt != null) stmt.close();
             }
 
-            upgradeVersion = 53;
+            upgradeVersion = timer.reached(53);
         }
 
         if (upgradeVersion == 53) {
             /*
              * New settings for set install location UI no longer initiated here.
              */
-            upgradeVersion = 54;
+            upgradeVersion = timer.reached(54);
         }
 
         if (upgradeVersion == 54) {
@@ -677,7 +706,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
             }
 
-            upgradeVersion = 55;
+            upgradeVersion = timer.reached(55);
         }
 
         if (upgradeVersion == 55) {
@@ -700,7 +729,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                  db.endTransaction();
                  if (stmt != null) stmt.close();
              }
-            upgradeVersion = 56;
+            upgradeVersion = timer.reached(56);
         }
 
         if (upgradeVersion == 56) {
@@ -721,7 +750,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 57;
+            upgradeVersion = timer.reached(57);
         }
 
         /************* The following are Honeycomb changes ************/
@@ -749,7 +778,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 58;
+            upgradeVersion = timer.reached(58);
         }
 
         if (upgradeVersion == 58) {
@@ -766,7 +795,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 59;
+            upgradeVersion = timer.reached(59);
         }
 
         if (upgradeVersion == 59) {
@@ -783,21 +812,21 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 60;
+            upgradeVersion = timer.reached(60);
         }
 
         if (upgradeVersion == 60) {
             // Don't do this for upgrades from Gingerbread
             // Were only required for intra-Honeycomb upgrades for testing
             // upgradeScreenTimeout(db);
-            upgradeVersion = 61;
+            upgradeVersion = timer.reached(61);
         }
 
         if (upgradeVersion == 61) {
             // Don't do this for upgrades from Gingerbread
             // Were only required for intra-Honeycomb upgrades for testing
             // upgradeScreenTimeout(db);
-            upgradeVersion = 62;
+            upgradeVersion = timer.reached(62);
         }
 
         // Change the default for screen auto-brightness mode
@@ -805,7 +834,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             // Don't do this for upgrades from Gingerbread
             // Were only required for intra-Honeycomb upgrades for testing
             // upgradeAutoBrightness(db);
-            upgradeVersion = 63;
+            upgradeVersion = timer.reached(63);
         }
 
         if (upgradeVersion == 63) {
@@ -827,7 +856,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
              } finally {
                  db.endTransaction();
              }
-             upgradeVersion = 64;
+             upgradeVersion = timer.reached(64);
          }
 
         if (upgradeVersion == 64) {
@@ -845,7 +874,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 65;
+            upgradeVersion = timer.reached(65);
         }
 
         /************* The following are Ice Cream Sandwich changes ************/
@@ -869,7 +898,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 66;
+            upgradeVersion = timer.reached(66);
         }
 
         if (upgradeVersion == 66) {
@@ -894,7 +923,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 67;
+            upgradeVersion = timer.reached(67);
         }
 
         if (upgradeVersion == 67) {
@@ -912,7 +941,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 68;
+            upgradeVersion = timer.reached(68);
         }
 
         if (upgradeVersion == 68) {
@@ -925,7 +954,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 69;
+            upgradeVersion = timer.reached(69);
         }
 
         if (upgradeVersion == 69) {
@@ -944,13 +973,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
-            upgradeVersion = 70;
+            upgradeVersion = timer.reached(70);
         }
 
         if (upgradeVersion == 70) {
             // Update all built-in bookmarks.  Some of the package names have changed.
             loadBookmarks(db);
-            upgradeVersion = 71;
+            upgradeVersion = timer.reached(71);
         }
 
         if (upgradeVersion == 71) {
@@ -967,7 +996,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 72;
+            upgradeVersion = timer.reached(72);
         }
 
         if (upgradeVersion == 72) {
@@ -984,12 +1013,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 73;
+            upgradeVersion = timer.reached(73);
         }
 
         if (upgradeVersion == 73) {
             upgradeVibrateSettingFromNone(db);
-            upgradeVersion = 74;
+            upgradeVersion = timer.reached(74);
         }
 
         if (upgradeVersion == 74) {
@@ -1005,7 +1034,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 75;
+            upgradeVersion = timer.reached(75);
         }
         if (upgradeVersion == 75) {
             db.beginTransaction();
@@ -1028,7 +1057,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 if (c != null) c.close();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 76;
+            upgradeVersion = timer.reached(76);
         }
 
         /************* The following are Jelly Bean changes ************/
@@ -1044,14 +1073,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
             }
 
-            upgradeVersion = 77;
+            upgradeVersion = timer.reached(77);
         }
 
         if (upgradeVersion == 77) {
             // Introduce "vibrate when ringing" setting
             loadVibrateWhenRingingSetting(db);
 
-            upgradeVersion = 78;
+            upgradeVersion = timer.reached(78);
         }
 
         if (upgradeVersion == 78) {
@@ -1068,7 +1097,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.endTransaction();
                 if (stmt != null) stmt.close();
             }
-            upgradeVersion = 79;
+            upgradeVersion = timer.reached(79);
         }
 
         if (upgradeVersion == 79) {
@@ -1114,11 +1143,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     }
                 }
             }
-            upgradeVersion = 80;
+            upgradeVersion = timer.reached(80);
         }
 
         // *** Remember to update DATABASE_VERSION above!
 
+        sLastUpgradeSummary = timer.summarize();
+        Log.i(TAG, sLastUpgradeSummary);
+
         if (upgradeVersion != currentVersion) {
             Log.w(TAG, "Got stuck trying to upgrade from version " + upgradeVersion
                     + ", must wipe the settings provider");
@@ -1142,6 +1174,67 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * @return the step timing breakdown of the last upgrade run by this
+     *     process, or null if there was none.
+     */
+    public static String getLastUpgradeSummary() {
+        return sLastUpgradeSummary;
+    }
+
+    /**
+     * Times the steps of {@link #onUpgrade}, so the ones dominating the
+     * first boot after an OTA show up in the log.
+     */
+    private static final class UpgradeTimer {
+        // How many of the slowest steps to report.
+        private static final int REPORTED_STEPS = 10;
+
+        private final int mOldVersion;
+        private final long mStart = SystemClock.elapsedRealtime();
+        private final ArrayList<long[]> mSteps = new ArrayList<long[]>();  // {from, to, ms}
+        private int mVersion;
+        private long mStepStart = mStart;
+
+        UpgradeTimer(int oldVersion) {
+            mOldVersion = oldVersion;
+            mVersion = oldVersion;
+        }
+
+        /**
+         * Marks the end of the step bringing the database to 'version'.
+         * @return version
+         */
+        int reached(int version) {
+            long now = SystemClock.elapsedRealtime();
+            mSteps.add(new long[] { mVersion, version, now - mStepStart });
+            mVersion = version;
+            mStepStart = now;
+            return version;
+        }
+
+        String summarize() {
+            long total = SystemClock.elapsedRealtime() - mStart;
+            ArrayList<long[]> steps = new ArrayList<long[]>(mSteps);
+            Collections.sort(steps, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return a[2] < b[2] ? 1 : (a[2] > b[2] ? -1 : 0);
+                }
+            });
+            StringBuilder sb = new StringBuilder();
+            sb.append("Upgraded settings database from version ").append(mOldVersion)
+                    .append(" to ").append(mVersion).append(" in ").append(total)
+                    .append("ms over ").append(mSteps.size()).append(" steps");
+            for (int i = 0; i < steps.size() && i < REPORTED_STEPS; i++) {
+                long[] step = steps.get(i);
+                sb.append(i == 0 ? "; slowest: " : ", ");
+                sb.append(step[0]).append("->").append(step[1])
+                        .append('=').append(step[2]).append("ms");
+            }
+            return sb.toString();
+        }
+    }
+
     private void moveFromSystemToSecure(SQLiteDatabase db, String [] settingsToMove) {
         // Copy settings values from 'system' to 'secure' and delete them from 'system'
         SQLiteStatement insertStmt = null;
@@ -1467,256 +1560,387 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void loadSettings(SQLiteDatabase db) {
+        if (mLegacyDefaults) {
+            loadSettingsLegacy(db);
+            return;
+        }
         loadSystemSettings(db);
         loadSecureSettings(db);
     }
 
-    private void loadSystemSettings(SQLiteDatabase db) {
+    /**
+     * Inserts each default through the table's statement as soon as it is
+     * read, without collecting them first.  Only benchmarks select this.
+     */
+    private void loadSettingsLegacy(SQLiteDatabase db) {
         SQLiteStatement stmt = null;
         try {
             stmt = db.compileStatement("INSERT OR IGNORE INTO system(name,value)"
                     + " VALUES(?,?);");
+            loadSystemSettings(new DefaultSettings(mContext.getResources(), stmt));
+        } finally {
+            if (stmt != null) stmt.close();
+        }
 
-            loadBooleanSetting(stmt, Settings.System.DIM_SCREEN,
-                    R.bool.def_dim_screen);
-            loadSetting(stmt, Settings.System.STAY_ON_WHILE_PLUGGED_IN,
-                    ("1".equals(SystemProperties.get("ro.kernel.qemu")) ||
-                        mContext.getResources().getBoolean(R.bool.def_stay_on_while_plugged_in))
-                     ? 1 : 0);
-            loadIntegerSetting(stmt, Settings.System.SCREEN_OFF_TIMEOUT,
-                    R.integer.def_screen_off_timeout);
+        stmt = null;
+        try {
+            stmt = db.compileStatement("INSERT OR IGNORE INTO secure(name,value)"
+                    + " VALUES(?,?);");
+            loadSecureSettings(new DefaultSettings(mContext.getResources(), stmt));
+        } finally {
+            if (stmt != null) stmt.close();
+        }
+    }
 
-            // Set default cdma emergency tone
-            loadSetting(stmt, Settings.System.EMERGENCY_TONE, 0);
+    private void loadSystemSettings(SQLiteDatabase db) {
+        final DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadSystemSettings(defaults);
+        applyDefaults(db, "system", defaults);
+    }
 
-            // Set default cdma call auto retry
-            loadSetting(stmt, Settings.System.CALL_AUTO_RETRY, 0);
+    private void loadSystemSettings(DefaultSettings defaults) {
+        final Resources res = mContext.getResources();
 
-            // Set default cdma DTMF type
-            loadSetting(stmt, Settings.System.DTMF_TONE_TYPE_WHEN_DIALING, 0);
+        defaults.putBoolean(Settings.System.DIM_SCREEN,
+                R.bool.def_dim_screen);
+        defaults.put(Settings.System.STAY_ON_WHILE_PLUGGED_IN,
+                ("1".equals(SystemProperties.get("ro.kernel.qemu")) ||
+                    res.getBoolean(R.bool.def_stay_on_while_plugged_in))
+                 ? 1 : 0);
+        defaults.putInteger(Settings.System.SCREEN_OFF_TIMEOUT,
+                R.integer.def_screen_off_timeout);
 
-            // Set default hearing aid
-            loadSetting(stmt, Settings.System.HEARING_AID, 0);
+        // Set default cdma emergency tone
+        defaults.put(Settings.System.EMERGENCY_TONE, 0);
 
-            // Set default tty mode
-            loadSetting(stmt, Settings.System.TTY_MODE, 0);
+        // Set default cdma call auto retry
+        defaults.put(Settings.System.CALL_AUTO_RETRY, 0);
 
-            loadBooleanSetting(stmt, Settings.System.AIRPLANE_MODE_ON,
-                    R.bool.def_airplane_mode_on);
+        // Set default cdma DTMF type
+        defaults.put(Settings.System.DTMF_TONE_TYPE_WHEN_DIALING, 0);
 
-            loadStringSetting(stmt, Settings.System.AIRPLANE_MODE_RADIOS,
-                    R.string.def_airplane_mode_radios);
+        // Set default hearing aid
+        defaults.put(Settings.System.HEARING_AID, 0);
 
-            loadStringSetting(stmt, Settings.System.AIRPLANE_MODE_TOGGLEABLE_RADIOS,
-                    R.string.airplane_mode_toggleable_radios);
+        // Set default tty mode
+        defaults.put(Settings.System.TTY_MODE, 0);
 
-            loadBooleanSetting(stmt, Settings.System.AUTO_TIME,
-                    R.bool.def_auto_time); // Sync time to NITZ
+        defaults.putBoolean(Settings.System.AIRPLANE_MODE_ON,
+                R.bool.def_airplane_mode_on);
 
-            loadBooleanSetting(stmt, Settings.System.AUTO_TIME_ZONE,
-                    R.bool.def_auto_time_zone); // Sync timezone to NITZ
+        defaults.putString(Settings.System.AIRPLANE_MODE_RADIOS,
+                R.string.def_airplane_mode_radios);
 
-            loadIntegerSetting(stmt, Settings.System.SCREEN_BRIGHTNESS,
-                    R.integer.def_screen_brightness);
+        defaults.putString(Settings.System.AIRPLANE_MODE_TOGGLEABLE_RADIOS,
+                R.string.airplane_mode_toggleable_radios);
 
-            loadBooleanSetting(stmt, Settings.System.SCREEN_BRIGHTNESS_MODE,
-                    R.bool.def_screen_brightness_automatic_mode);
+        defaults.putBoolean(Settings.System.AUTO_TIME,
+                R.bool.def_auto_time); // Sync time to NITZ
 
-            loadDefaultAnimationSettings(stmt);
+        defaults.putBoolean(Settings.System.AUTO_TIME_ZONE,
+                R.bool.def_auto_time_zone); // Sync timezone to NITZ
 
-            loadBooleanSetting(stmt, Settings.System.ACCELEROMETER_ROTATION,
-                    R.bool.def_accelerometer_rotation);
+        defaults.putInteger(Settings.System.SCREEN_BRIGHTNESS,
+                R.integer.def_screen_brightness);
 
-            loadDefaultHapticSettings(stmt);
+        defaults.putBoolean(Settings.System.SCREEN_BRIGHTNESS_MODE,
+                R.bool.def_screen_brightness_automatic_mode);
 
-            loadBooleanSetting(stmt, Settings.System.NOTIFICATION_LIGHT_PULSE,
-                    R.bool.def_notification_pulse);
-            loadSetting(stmt, Settings.Secure.SET_INSTALL_LOCATION, 0);
-            loadSetting(stmt, Settings.Secure.DEFAULT_INSTALL_LOCATION,
-                    PackageHelper.APP_INSTALL_AUTO);
+        loadDefaultAnimationSettings(defaults);
 
-            loadUISoundEffectsSettings(stmt);
+        defaults.putBoolean(Settings.System.ACCELEROMETER_ROTATION,
+                R.bool.def_accelerometer_rotation);
 
-            loadIntegerSetting(stmt, Settings.System.POINTER_SPEED,
-                    R.integer.def_pointer_speed);
+        loadDefaultHapticSettings(defaults);
 
-        } finally {
-            if (stmt != null) stmt.close();
-        }
+        defaults.putBoolean(Settings.System.NOTIFICATION_LIGHT_PULSE,
+                R.bool.def_notification_pulse);
+        defaults.put(Settings.Secure.SET_INSTALL_LOCATION, 0);
+        defaults.put(Settings.Secure.DEFAULT_INSTALL_LOCATION,
+                PackageHelper.APP_INSTALL_AUTO);
+
+        loadUISoundEffectsSettings(defaults);
+
+        defaults.putInteger(Settings.System.POINTER_SPEED,
+                R.integer.def_pointer_speed);
     }
 
-    private void loadUISoundEffectsSettings(SQLiteStatement stmt) {
-        loadIntegerSetting(stmt, Settings.System.POWER_SOUNDS_ENABLED,
+    private void loadUISoundEffectsSettings(DefaultSettings defaults) {
+        defaults.putInteger(Settings.System.POWER_SOUNDS_ENABLED,
             R.integer.def_power_sounds_enabled);
-        loadStringSetting(stmt, Settings.System.LOW_BATTERY_SOUND,
+        defaults.putString(Settings.System.LOW_BATTERY_SOUND,
             R.string.def_low_battery_sound);
-        loadBooleanSetting(stmt, Settings.System.DTMF_TONE_WHEN_DIALING,
+        defaults.putBoolean(Settings.System.DTMF_TONE_WHEN_DIALING,
                 R.bool.def_dtmf_tones_enabled);
-        loadBooleanSetting(stmt, Settings.System.SOUND_EFFECTS_ENABLED,
+        defaults.putBoolean(Settings.System.SOUND_EFFECTS_ENABLED,
                 R.bool.def_sound_effects_enabled);
-        loadBooleanSetting(stmt, Settings.System.HAPTIC_FEEDBACK_ENABLED,
+        defaults.putBoolean(Settings.System.HAPTIC_FEEDBACK_ENABLED,
                 R.bool.def_haptic_feedback);
 
-        loadIntegerSetting(stmt, Settings.System.DOCK_SOUNDS_ENABLED,
+        defaults.putInteger(Settings.System.DOCK_SOUNDS_ENABLED,
             R.integer.def_dock_sounds_enabled);
-        loadStringSetting(stmt, Settings.System.DESK_DOCK_SOUND,
+        defaults.putString(Settings.System.DESK_DOCK_SOUND,
             R.string.def_desk_dock_sound);
-        loadStringSetting(stmt, Settings.System.DESK_UNDOCK_SOUND,
+        defaults.putString(Settings.System.DESK_UNDOCK_SOUND,
             R.string.def_desk_undock_sound);
-        loadStringSetting(stmt, Settings.System.CAR_DOCK_SOUND,
+        defaults.putString(Settings.System.CAR_DOCK_SOUND,
             R.string.def_car_dock_sound);
-        loadStringSetting(stmt, Settings.System.CAR_UNDOCK_SOUND,
+        defaults.putString(Settings.System.CAR_UNDOCK_SOUND,
             R.string.def_car_undock_sound);
 
-        loadIntegerSetting(stmt, Settings.System.LOCKSCREEN_SOUNDS_ENABLED,
+        defaults.putInteger(Settings.System.LOCKSCREEN_SOUNDS_ENABLED,
             R.integer.def_lockscreen_sounds_enabled);
-        loadStringSetting(stmt, Settings.System.LOCK_SOUND,
+        defaults.putString(Settings.System.LOCK_SOUND,
             R.string.def_lock_sound);
-        loadStringSetting(stmt, Settings.System.UNLOCK_SOUND,
+        defaults.putString(Settings.System.UNLOCK_SOUND,
             R.string.def_unlock_sound);
     }
 
-    private void loadDefaultAnimationSettings(SQLiteStatement stmt) {
-        loadFractionSetting(stmt, Settings.System.WINDOW_ANIMATION_SCALE,
+    private void loadDefaultAnimationSettings(DefaultSettings defaults) {
+        defaults.putFraction(Settings.System.WINDOW_ANIMATION_SCALE,
                 R.fraction.def_window_animation_scale, 1);
-        loadFractionSetting(stmt, Settings.System.TRANSITION_ANIMATION_SCALE,
+        defaults.putFraction(Settings.System.TRANSITION_ANIMATION_SCALE,
                 R.fraction.def_window_transition_scale, 1);
     }
 
-    private void loadDefaultHapticSettings(SQLiteStatement stmt) {
-        loadBooleanSetting(stmt, Settings.System.HAPTIC_FEEDBACK_ENABLED,
+    private void loadDefaultHapticSettings(DefaultSettings defaults) {
+        defaults.putBoolean(Settings.System.HAPTIC_FEEDBACK_ENABLED,
                 R.bool.def_haptic_feedback);
     }
 
     private void loadSecureSettings(SQLiteDatabase db) {
-        SQLiteStatement stmt = null;
-        try {
-            stmt = db.compileStatement("INSERT OR IGNORE INTO secure(name,value)"
-                    + " VALUES(?,?);");
+        final DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadSecureSettings(defaults);
+        applyDefaults(db, "secure", defaults);
+    }
 
-            loadBooleanSetting(stmt, Settings.Secure.BLUETOOTH_ON,
-                    R.bool.def_bluetooth_on);
+    private void loadSecureSettings(DefaultSettings defaults) {
+        final Resources res = mContext.getResources();
 
-            // Data roaming default, based on build
-            loadSetting(stmt, Settings.Secure.DATA_ROAMING,
-                    "true".equalsIgnoreCase(
-                            SystemProperties.get("ro.com.android.dataroaming",
-                                    "false")) ? 1 : 0);
+        defaults.putBoolean(Settings.Secure.BLUETOOTH_ON,
+                R.bool.def_bluetooth_on);
 
-            loadBooleanSetting(stmt, Settings.Secure.INSTALL_NON_MARKET_APPS,
-                    R.bool.def_install_non_market_apps);
+        // Data roaming default, based on build
+        defaults.put(Settings.Secure.DATA_ROAMING,
+                "true".equalsIgnoreCase(
+                        SystemProperties.get("ro.com.android.dataroaming",
+                                "false")) ? 1 : 0);
 
-            loadStringSetting(stmt, Settings.Secure.LOCATION_PROVIDERS_ALLOWED,
-                    R.string.def_location_providers_allowed);
+        defaults.putBoolean(Settings.Secure.INSTALL_NON_MARKET_APPS,
+                R.bool.def_install_non_market_apps);
 
-            loadBooleanSetting(stmt, Settings.Secure.ASSISTED_GPS_ENABLED,
-                    R.bool.assisted_gps_enabled);
+        defaults.putString(Settings.Secure.LOCATION_PROVIDERS_ALLOWED,
+                R.string.def_location_providers_allowed);
 
-            loadIntegerSetting(stmt, Settings.Secure.NETWORK_PREFERENCE,
-                    R.integer.def_network_preference);
+        defaults.putBoolean(Settings.Secure.ASSISTED_GPS_ENABLED,
+                R.bool.assisted_gps_enabled);
 
-            loadBooleanSetting(stmt, Settings.Secure.USB_MASS_STORAGE_ENABLED,
-                    R.bool.def_usb_mass_storage_enabled);
+        defaults.putInteger(Settings.Secure.NETWORK_PREFERENCE,
+                R.integer.def_network_preference);
 
-            loadBooleanSetting(stmt, Settings.Secure.WIFI_ON,
-                    R.bool.def_wifi_on);
-            loadBooleanSetting(stmt, Settings.Secure.WIFI_NETWORKS_AVAILABLE_NOTIFICATION_ON,
-                    R.bool.def_networks_available_notification_on);
+        defaults.putBoolean(Settings.Secure.USB_MASS_STORAGE_ENABLED,
+                R.bool.def_usb_mass_storage_enabled);
 
-            String wifiWatchList = SystemProperties.get("ro.com.android.wifi-watchlist");
-            if (!TextUtils.isEmpty(wifiWatchList)) {
-                loadSetting(stmt, Settings.Secure.WIFI_WATCHDOG_WATCH_LIST, wifiWatchList);
-            }
+        defaults.putBoolean(Settings.Secure.WIFI_ON,
+                R.bool.def_wifi_on);
+        defaults.putBoolean(Settings.Secure.WIFI_NETWORKS_AVAILABLE_NOTIFICATION_ON,
+                R.bool.def_networks_available_notification_on);
 
-            // Set the preferred network mode to 0 = Global, CDMA default
-            int type;
-            if (BaseCommands.getLteOnCdmaModeStatic() == Phone.LTE_ON_CDMA_TRUE) {
-                type = Phone.NT_MODE_GLOBAL;
-            } else {
-                type = SystemProperties.getInt("ro.telephony.default_network",
-                        RILConstants.PREFERRED_NETWORK_MODE);
-            }
-            loadSetting(stmt, Settings.Secure.PREFERRED_NETWORK_MODE, type);
+        String wifiWatchList = SystemProperties.get("ro.com.android.wifi-watchlist");
+        if (!TextUtils.isEmpty(wifiWatchList)) {
+            defaults.put(Settings.Secure.WIFI_WATCHDOG_WATCH_LIST, wifiWatchList);
+        }
 
-            // Enable or disable Cell Broadcast SMS
-            loadSetting(stmt, Settings.Secure.CDMA_CELL_BROADCAST_SMS,
-                    RILConstants.CDMA_CELL_BROADCAST_SMS_DISABLED);
+        // Set the preferred network mode to 0 = Global, CDMA default
+        int type;
+        if (BaseCommands.getLteOnCdmaModeStatic() == Phone.LTE_ON_CDMA_TRUE) {
+            type = Phone.NT_MODE_GLOBAL;
+        } else {
+            type = SystemProperties.getInt("ro.telephony.default_network",
+                    RILConstants.PREFERRED_NETWORK_MODE);
+        }
+        defaults.put(Settings.Secure.PREFERRED_NETWORK_MODE, type);
 
-            // Don't do this.  The SystemServer will initialize ADB_ENABLED from a
-            // persistent system property instead.
-            //loadSetting(stmt, Settings.Secure.ADB_ENABLED, 0);
+        // Enable or disable Cell Broadcast SMS
+        defaults.put(Settings.Secure.CDMA_CELL_BROADCAST_SMS,
+                RILConstants.CDMA_CELL_BROADCAST_SMS_DISABLED);
 
-            // Allow mock locations default, based on build
-            loadSetting(stmt, Settings.Secure.ALLOW_MOCK_LOCATION,
-                    "1".equals(SystemProperties.get("ro.allow.mock.location")) ? 1 : 0);
+        // Don't do this.  The SystemServer will initialize ADB_ENABLED from a
+        // persistent system property instead.
+        //defaults.put(Settings.Secure.ADB_ENABLED, 0);
 
-            loadSecure35Settings(stmt);
+        // Allow mock locations default, based on build
+        defaults.put(Settings.Secure.ALLOW_MOCK_LOCATION,
+                "1".equals(SystemProperties.get("ro.allow.mock.location")) ? 1 : 0);
 
-            loadBooleanSetting(stmt, Settings.Secure.MOUNT_PLAY_NOTIFICATION_SND,
-                    R.bool.def_mount_play_notification_snd);
+        loadSecure35Settings(defaults);
 
-            loadBooleanSetting(stmt, Settings.Secure.MOUNT_UMS_AUTOSTART,
-                    R.bool.def_mount_ums_autostart);
+        defaults.putBoolean(Settings.Secure.MOUNT_PLAY_NOTIFICATION_SND,
+                R.bool.def_mount_play_notification_snd);
 
-            loadBooleanSetting(stmt, Settings.Secure.MOUNT_UMS_PROMPT,
-                    R.bool.def_mount_ums_prompt);
+        defaults.putBoolean(Settings.Secure.MOUNT_UMS_AUTOSTART,
+                R.bool.def_mount_ums_autostart);
 
-            loadBooleanSetting(stmt, Settings.Secure.MOUNT_UMS_NOTIFY_ENABLED,
-                    R.bool.def_mount_ums_notify_enabled);
+        defaults.putBoolean(Settings.Secure.MOUNT_UMS_PROMPT,
+                R.bool.def_mount_ums_prompt);
 
-            loadBooleanSetting(stmt, Settings.Secure.ACCESSIBILITY_SCRIPT_INJECTION,
-                    R.bool.def_accessibility_script_injection);
+        defaults.putBoolean(Settings.Secure.MOUNT_UMS_NOTIFY_ENABLED,
+                R.bool.def_mount_ums_notify_enabled);
 
-            loadStringSetting(stmt, Settings.Secure.ACCESSIBILITY_WEB_CONTENT_KEY_BINDINGS,
-                    R.string.def_accessibility_web_content_key_bindings);
+        defaults.putBoolean(Settings.Secure.ACCESSIBILITY_SCRIPT_INJECTION,
+                R.bool.def_accessibility_script_injection);
 
-            final int maxBytes = mContext.getResources().getInteger(
-                    R.integer.def_download_manager_max_bytes_over_mobile);
-            if (maxBytes > 0) {
-                loadSetting(stmt, Settings.Secure.DOWNLOAD_MAX_BYTES_OVER_MOBILE,
-                        Integer.toString(maxBytes));
-            }
+        defaults.putString(Settings.Secure.ACCESSIBILITY_WEB_CONTENT_KEY_BINDINGS,
+                R.string.def_accessibility_web_content_key_bindings);
 
-            final int recommendedMaxBytes = mContext.getResources().getInteger(
-                    R.integer.def_download_manager_recommended_max_bytes_over_mobile);
-            if (recommendedMaxBytes > 0) {
-                loadSetting(stmt, Settings.Secure.DOWNLOAD_RECOMMENDED_MAX_BYTES_OVER_MOBILE,
-                        Integer.toString(recommendedMaxBytes));
-            }
+        final int maxBytes = res.getInteger(
+                R.integer.def_download_manager_max_bytes_over_mobile);
+        if (maxBytes > 0) {
+            defaults.put(Settings.Secure.DOWNLOAD_MAX_BYTES_OVER_MOBILE,
+                    Integer.toString(maxBytes));
+        }
+
+        final int recommendedMaxBytes = res.getInteger(
+                R.integer.def_download_manager_recommended_max_bytes_over_mobile);
+        if (recommendedMaxBytes > 0) {
+            defaults.put(Settings.Secure.DOWNLOAD_RECOMMENDED_MAX_BYTES_OVER_MOBILE,
+                    Integer.toString(recommendedMaxBytes));
+        }
+
+        defaults.putInteger(Settings.Secure.LONG_PRESS_TIMEOUT,
+                R.integer.def_long_press_timeout_millis);
+
+        defaults.putBoolean(Settings.Secure.TOUCH_EXPLORATION_ENABLED,
+                R.bool.def_touch_exploration_enabled);
+
+        defaults.putBoolean(Settings.Secure.ACCESSIBILITY_SPEAK_PASSWORD,
+                R.bool.def_accessibility_speak_password);
+
+        defaults.putString(Settings.Secure.ACCESSIBILITY_SCREEN_READER_URL,
+                R.string.def_accessibility_screen_reader_url);
 
-            loadIntegerSetting(stmt, Settings.Secure.LONG_PRESS_TIMEOUT,
-                    R.integer.def_long_press_timeout_millis);
+        defaults.putBoolean(Settings.System.LOCKSCREEN_DISABLED,
+                R.bool.def_lockscreen_disabled);
 
-            loadBooleanSetting(stmt, Settings.Secure.TOUCH_EXPLORATION_ENABLED,
-                    R.bool.def_touch_exploration_enabled);
+        defaults.putBoolean(Settings.Secure.DEVICE_PROVISIONED,
+                R.bool.def_device_provisioned);
+
+        defaults.putBoolean(Settings.Secure.NETSTATS_ENABLED,
+                R.bool.def_netstats_enabled);
+
+        defaults.putInteger(Settings.Secure.WIFI_MAX_DHCP_RETRY_COUNT,
+                R.integer.def_max_dhcp_retries);
+    }
+
+    /**
+     * Default values for one settings table, resolved from resources into
+     * memory up front so they can be written in one go by
+     * {@link #applyDefaults}.  As with INSERT OR IGNORE, the first value
+     * given for a key wins.  Given a statement, each value is instead
+     * written through it as soon as it is put.
+     */
+    private static final class DefaultSettings {
+        private final Resources mRes;
+        private final SQLiteStatement mStmt;
+        private final LinkedHashMap<String, String> mValues = new LinkedHashMap<String, String>();
+
+        DefaultSettings(Resources res) {
+            this(res, null);
+        }
+
+        DefaultSettings(Resources res, SQLiteStatement stmt) {
+            mRes = res;
+            mStmt = stmt;
+        }
+
+        void put(String key, Object value) {
+            if (mStmt != null) {
+                mStmt.bindString(1, key);
+                mStmt.bindString(2, value.toString());
+                mStmt.execute();
+            } else if (!mValues.containsKey(key)) {
+                mValues.put(key, value.toString());
+            }
+        }
 
-            loadBooleanSetting(stmt, Settings.Secure.ACCESSIBILITY_SPEAK_PASSWORD,
-                    R.bool.def_accessibility_speak_password);
+        void putString(String key, int resid) {
+            put(key, mRes.getString(resid));
+        }
 
-            loadStringSetting(stmt, Settings.Secure.ACCESSIBILITY_SCREEN_READER_URL,
-                    R.string.def_accessibility_screen_reader_url);
+        void putBoolean(String key, int resid) {
+            put(key, mRes.getBoolean(resid) ? "1" : "0");
+        }
 
-            loadBooleanSetting(stmt, Settings.System.LOCKSCREEN_DISABLED,
-                    R.bool.def_lockscreen_disabled);
+        void putInteger(String key, int resid) {
+            put(key, Integer.toString(mRes.getInteger(resid)));
+        }
 
-            loadBooleanSetting(stmt, Settings.Secure.DEVICE_PROVISIONED,
-                    R.bool.def_device_provisioned);
+        void putFraction(String key, int resid, int base) {
+            put(key, Float.toString(mRes.getFraction(resid, base, base)));
+        }
 
-            loadBooleanSetting(stmt, Settings.Secure.NETSTATS_ENABLED,
-                    R.bool.def_netstats_enabled);
+        /**
+         * Writes every value through 'stmt', an INSERT into (name, value).
+         */
+        void writeTo(SQLiteStatement stmt) {
+            for (Map.Entry<String, String> entry : mValues.entrySet()) {
+                stmt.bindString(1, entry.getKey());
+                stmt.bindString(2, entry.getValue());
+                stmt.execute();
+            }
+        }
+    }
 
-            loadIntegerSetting(stmt, Settings.Secure.WIFI_MAX_DHCP_RETRY_COUNT,
-                    R.integer.def_max_dhcp_retries);
+    /**
+     * Inserts the defaults into 'table', keeping any value already there,
+     * with one compiled statement inside one transaction.
+     */
+    private void applyDefaults(SQLiteDatabase db, String table, DefaultSettings defaults) {
+        db.beginTransaction();
+        SQLiteStatement stmt = null;
+        try {
+            stmt = db.compileStatement("INSERT OR IGNORE INTO " + table + "(name,value)"
+                    + " VALUES(?,?);");
+            defaults.writeTo(stmt);
+            db.setTransactionSuccessful();
         } finally {
+            db.endTransaction();
             if (stmt != null) stmt.close();
         }
     }
 
+    // The upgrade steps write these groups of defaults through their own
+    // statements.
+
+    private void loadUISoundEffectsSettings(SQLiteStatement stmt) {
+        DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadUISoundEffectsSettings(defaults);
+        defaults.writeTo(stmt);
+    }
+
+    private void loadDefaultAnimationSettings(SQLiteStatement stmt) {
+        DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadDefaultAnimationSettings(defaults);
+        defaults.writeTo(stmt);
+    }
+
+    private void loadDefaultHapticSettings(SQLiteStatement stmt) {
+        DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadDefaultHapticSettings(defaults);
+        defaults.writeTo(stmt);
+    }
+
     private void loadSecure35Settings(SQLiteStatement stmt) {
-        loadBooleanSetting(stmt, Settings.Secure.BACKUP_ENABLED,
+        DefaultSettings defaults = new DefaultSettings(mContext.getResources());
+        loadSecure35Settings(defaults);
+        defaults.writeTo(stmt);
+    }
+
+    private void loadSecure35Settings(DefaultSettings defaults) {
+        defaults.putBoolean(Settings.Secure.BACKUP_ENABLED,
                 R.bool.def_backup_enabled);
 
-        loadStringSetting(stmt, Settings.Secure.BACKUP_TRANSPORT,
+        defaults.putString(Settings.Secure.BACKUP_TRANSPORT,
                 R.string.def_backup_transport);
     }
 
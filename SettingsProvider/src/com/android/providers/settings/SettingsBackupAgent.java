@@ -20,11 +20,11 @@ import android.app.backup.BackupAgentHelper;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
 import android.app.backup.FullBackupDataOutput;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
+import android.os.Bundle;
 import android.os.FileUtils;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
@@ -48,9 +48,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.zip.CRC32;
 
@@ -88,6 +90,14 @@ public class SettingsBackupAgent extends BackupAgentHelper {
 
     private static final byte[] EMPTY_DATA = new byte[0];
 
+    // Settings blobs have always been written in the platform default
+    // charset, which is UTF-8 on Android; spell it out.
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Key -> position maps for the backup white lists, by identity.
+    private static final Map<String[], Map<String, Integer>> sWhitelistIndexes =
+            new IdentityHashMap<String[], Map<String, Integer>>();
+
     private static final String TAG = "SettingsBackupAgent";
 
     private static final int COLUMN_NAME = 1;
@@ -522,118 +532,146 @@ public class SettingsBackupAgent extends BackupAgentHelper {
             throw new IllegalArgumentException("Unknown URI: " + contentUri);
         }
 
-        // Restore only the white list data.
-        int pos = 0;
-        Map<String, String> cachedEntries = new HashMap<String, String>();
-        ContentValues contentValues = new ContentValues(2);
+        // Restore only the white list data, in white list order.
+        String[] values = decodeRelevantValues(settings, bytes, whitelist);
+        ArrayList<String> restoredNames = new ArrayList<String>(whitelist.length);
+        ArrayList<String> restoredValues = new ArrayList<String>(whitelist.length);
         SettingsHelper settingsHelper = mSettingsHelper;
 
         final int whiteListSize = whitelist.length;
         for (int i = 0; i < whiteListSize; i++) {
             String key = whitelist[i];
-            String value = cachedEntries.remove(key);
-
-            // If the value not cached, let us look it up.
-            if (value == null) {
-                while (pos < bytes) {
-                    int length = readInt(settings, pos);
-                    pos += INTEGER_BYTE_COUNT;
-                    String dataKey = length > 0 ? new String(settings, pos, length) : null;
-                    pos += length;
-                    length = readInt(settings, pos);
-                    pos += INTEGER_BYTE_COUNT;
-                    String dataValue = length > 0 ? new String(settings, pos, length) : null;
-                    pos += length;
-                    if (key.equals(dataKey)) {
-                        value = dataValue;
-                        break;
-                    }
-                    cachedEntries.put(dataKey, dataValue);
-                }
-            }
-
+            String value = values[i];
             if (value == null) {
                 continue;
             }
 
             if (settingsHelper.restoreValue(key, value)) {
-                contentValues.clear();
-                contentValues.put(Settings.NameValueTable.NAME, key);
-                contentValues.put(Settings.NameValueTable.VALUE, value);
-                getContentResolver().insert(contentUri, contentValues);
+                restoredNames.add(key);
+                restoredValues.add(value);
             }
 
             if (DEBUG) {
                 Log.d(TAG, "Restored setting: " + key + "=" + value);
             }
         }
+
+        if (restoredNames.isEmpty()) {
+            return;
+        }
+        // One transaction and one change notification for the whole set.
+        Bundle args = new Bundle();
+        args.putStringArray(SettingsProvider.CALL_EXTRA_NAMES,
+                restoredNames.toArray(new String[restoredNames.size()]));
+        args.putStringArray(SettingsProvider.CALL_EXTRA_VALUES,
+                restoredValues.toArray(new String[restoredValues.size()]));
+        String method = contentUri.equals(Settings.Secure.CONTENT_URI)
+                ? SettingsProvider.CALL_METHOD_RESTORE_SECURE
+                : SettingsProvider.CALL_METHOD_RESTORE_SYSTEM;
+        Bundle result = getContentResolver().call(contentUri, method, null, args);
+        if (result == null) {
+            Log.e(TAG, "Couldn't restore settings for " + contentUri);
+        } else if (DEBUG) {
+            Log.d(TAG, result.getInt(SettingsProvider.CALL_EXTRA_COUNT) + " settings changed");
+        }
+    }
+
+    /**
+     * Returns a map from each key of the given white list to its index,
+     * built once per white list.
+     */
+    private static Map<String, Integer> getWhitelistIndex(String[] whitelist) {
+        synchronized (sWhitelistIndexes) {
+            Map<String, Integer> index = sWhitelistIndexes.get(whitelist);
+            if (index == null) {
+                index = new HashMap<String, Integer>(whitelist.length * 2);
+                for (int i = 0; i < whitelist.length; i++) {
+                    index.put(whitelist[i], i);
+                }
+                sWhitelistIndexes.put(whitelist, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Decodes a blob produced by {@link #extractRelevantValues} in a
+     * single pass, whatever order its entries are in.
+     *
+     * @return the value of each white list key, by white list index, or
+     *     null where the blob has none.
+     */
+    private String[] decodeRelevantValues(byte[] settings, int bytes, String[] whitelist) {
+        final Map<String, Integer> index = getWhitelistIndex(whitelist);
+        final String[] values = new String[whitelist.length];
+        int pos = 0;
+        while (pos + 2 * INTEGER_BYTE_COUNT <= bytes) {
+            int length = readInt(settings, pos);
+            pos += INTEGER_BYTE_COUNT;
+            String dataKey = length > 0 ? new String(settings, pos, length, UTF_8) : null;
+            pos += length;
+            length = readInt(settings, pos);
+            pos += INTEGER_BYTE_COUNT;
+            String dataValue = length > 0 ? new String(settings, pos, length, UTF_8) : null;
+            pos += length;
+            Integer slot = (dataKey != null) ? index.get(dataKey) : null;
+            if (slot != null) {
+                values[slot] = dataValue;
+            }
+        }
+        return values;
     }
 
     /**
      * Given a cursor and a set of keys, extract the required keys and
-     * values and write them to a byte array.
+     * values and write them to a byte array.  The cursor is walked once,
+     * and the result is written in white list order into a buffer of
+     * exactly the right size.
      *
      * @param cursor A cursor with settings data.
      * @param settings The settings to extract.
      * @return The byte array of extracted values.
      */
     private byte[] extractRelevantValues(Cursor cursor, String[] settings) {
-        final int settingsCount = settings.length;
-        byte[][] values = new byte[settingsCount * 2][]; // keys and values
         if (!cursor.moveToFirst()) {
             Log.e(TAG, "Couldn't read from the cursor");
             return new byte[0];
         }
 
-        // Obtain the relevant data in a temporary array.
-        int totalSize = 0;
-        int backedUpSettingIndex = 0;
-        Map<String, String> cachedEntries = new HashMap<String, String>();
-        for (int i = 0; i < settingsCount; i++) {
-            String key = settings[i];
-            String value = cachedEntries.remove(key);
-
-            // If the value not cached, let us look it up.
-            if (value == null) {
-                while (!cursor.isAfterLast()) {
-                    String cursorKey = cursor.getString(COLUMN_NAME);
-                    String cursorValue = cursor.getString(COLUMN_VALUE);
-                    cursor.moveToNext();
-                    if (key.equals(cursorKey)) {
-                        value = cursorValue;
-                        break;
-                    }
-                    cachedEntries.put(cursorKey, cursorValue);
-                }
+        // Pick the white listed values out of the cursor.
+        final Map<String, Integer> index = getWhitelistIndex(settings);
+        final String[] values = new String[settings.length];
+        do {
+            Integer slot = index.get(cursor.getString(COLUMN_NAME));
+            if (slot != null) {
+                values[slot] = cursor.getString(COLUMN_VALUE);
             }
+        } while (cursor.moveToNext());
 
-            if (value == null) {
+        // Encode them, sizing the result as we go.
+        final byte[][] encoded = new byte[settings.length * 2][]; // keys and values
+        int totalSize = 0;
+        for (int i = 0; i < settings.length; i++) {
+            if (values[i] == null) {
                 continue;
             }
-
-            // Write the key and value in the intermediary array.
-            byte[] keyBytes = key.getBytes();
-            totalSize += INTEGER_BYTE_COUNT + keyBytes.length;
-            values[backedUpSettingIndex * 2] = keyBytes;
-
-            byte[] valueBytes = value.getBytes();
-            totalSize += INTEGER_BYTE_COUNT + valueBytes.length;
-            values[backedUpSettingIndex * 2 + 1] = valueBytes;
-
-            backedUpSettingIndex++;
+            encoded[i * 2] = settings[i].getBytes(UTF_8);
+            encoded[i * 2 + 1] = values[i].getBytes(UTF_8);
+            totalSize += 2 * INTEGER_BYTE_COUNT + encoded[i * 2].length + encoded[i * 2 + 1].length;
 
             if (DEBUG) {
-                Log.d(TAG, "Backed up setting: " + key + "=" + value);
+                Log.d(TAG, "Backed up setting: " + settings[i] + "=" + values[i]);
             }
         }
 
         // Aggregate the result.
         byte[] result = new byte[totalSize];
         int pos = 0;
-        final int keyValuePairCount = backedUpSettingIndex * 2;
-        for (int i = 0; i < keyValuePairCount; i++) {
-            pos = writeInt(result, pos, values[i].length);
-            pos = writeBytes(result, pos, values[i]);
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != null) {
+                pos = writeInt(result, pos, encoded[i].length);
+                pos = writeBytes(result, pos, encoded[i]);
+            }
         }
         return result;
     }
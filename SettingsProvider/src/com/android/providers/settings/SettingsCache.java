@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * In-memory cache of system and secure settings, along with
+ * associated helper functions to keep cache coherent with the
+ * database.
+ *
+ * Every Settings.System/Secure get* call in the system funnels into
+ * {@link #get}, from whichever binder thread happens to serve it, so
+ * reads never take a lock.  Entries live in a ConcurrentHashMap whose
+ * segments let unrelated single-key writers proceed in parallel.  A
+ * wholesale reload from disk builds a fresh map off to the side and
+ * publishes it with one volatile write, so readers see either the old
+ * table or the complete new one, never a half-populated one.  Reloads
+ * and invalidations exclude single-key writers through mReloadLock so
+ * a write racing a reload can't be lost.
+ */
+final class SettingsCache {
+    private static final String TAG = "SettingsProvider";
+
+    // Memory budget per table.  Large enough for the whole system table
+    // of a heavily customised build, so that the cache can fully match
+    // disk and misses never need to touch sqlite.
+    static final int MAX_CACHE_BYTES = 256 * 1024;
+
+    // Rough per-entry cost of the map entry, Bundle and String headers,
+    // on top of the characters themselves.
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    // Over this size we don't reject loading or saving settings but
+    // we do consider them broken/malicious and don't keep them in
+    // memory at least:
+    static final int MAX_CACHE_ENTRY_SIZE = 500;
+
+    // Number of lock stripes available to concurrent writers.
+    private static final int WRITER_STRIPES = 8;
+
+    static final Bundle NULL_SETTING = Bundle.forPair("value", null);
+
+    // Used as a sentinel value in an instance equality test when we
+    // want to cache the existence of a key, but not store its value.
+    static final Bundle TOO_LARGE_TO_CACHE_MARKER = Bundle.forPair("_dummy", null);
+
+    private final String mCacheName;
+    private final int mMaxBytes;
+
+    // Held shared by single-key writers, exclusively by reloads and
+    // invalidations.  Never taken by readers.
+    private final ReentrantReadWriteLock mReloadLock = new ReentrantReadWriteLock();
+
+    private volatile ConcurrentHashMap<String, Bundle> mEntries;
+    private volatile boolean mCacheFullyMatchesDisk = false;  // has the whole database slurped.
+    private int mFullPopulations = 0;  // how many times the table was reloaded wholesale.
+
+    // Estimated size of mEntries.  Reset along with it under the write
+    // lock; adjusted by writers holding the read lock.
+    private final AtomicInteger mBytes = new AtomicInteger();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mNegativeHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public SettingsCache(String name) {
+        this(name, MAX_CACHE_BYTES);
+    }
+
+    SettingsCache(String name, int maxBytes) {
+        mCacheName = name;
+        mMaxBytes = maxBytes;
+        mEntries = newEntries();
+    }
+
+    private static ConcurrentHashMap<String, Bundle> newEntries() {
+        return new ConcurrentHashMap<String, Bundle>(256, 0.75f, WRITER_STRIPES);
+    }
+
+    private static int sizeOf(String key, Bundle value) {
+        if (value == null) {
+            return 0;
+        }
+        int size = ENTRY_OVERHEAD_BYTES + 2 * key.length();
+        if (value != TOO_LARGE_TO_CACHE_MARKER && value != NULL_SETTING) {
+            String v = value.getPairValue();
+            if (v != null) {
+                size += 2 * v.length();
+            }
+        }
+        return size;
+    }
+
+    public String getName() {
+        return mCacheName;
+    }
+
+    /**
+     * Lock-free lookup.
+     *
+     * @returns the cached Bundle, possibly {@link #TOO_LARGE_TO_CACHE_MARKER},
+     *     or null if the key isn't cached.
+     */
+    public Bundle get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Is the whole database table slurped into this cache?
+     */
+    public boolean fullyMatchesDisk() {
+        return mCacheFullyMatchesDisk;
+    }
+
+    public void setFullyMatchesDisk(boolean value) {
+        mCacheFullyMatchesDisk = value;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public int sizeInBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * Records the outcome of a client lookup for {@link #dump}.
+     */
+    public void noteHit(Bundle value) {
+        if (value == NULL_SETTING || value.getPairValue() == null) {
+            mNegativeHits.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+    }
+
+    public void noteNegativeHit() {
+        mNegativeHits.incrementAndGet();
+    }
+
+    public void noteMiss() {
+        mMisses.incrementAndGet();
+    }
+
+    /**
+     * Atomic cache population, conditional on size of value and if
+     * we lost a race.
+     *
+     * @returns a Bundle to send back to the client from call(), even
+     *     if we lost the race.
+     */
+    public Bundle putIfAbsent(String key, String value) {
+        Bundle bundle = (value == null) ? NULL_SETTING : Bundle.forPair("value", value);
+        if (value == null || value.length() <= MAX_CACHE_ENTRY_SIZE) {
+            mReloadLock.readLock().lock();
+            try {
+                if (mEntries.putIfAbsent(key, bundle) == null) {
+                    mBytes.addAndGet(sizeOf(key, bundle));
+                    trimToSize();
+                }
+            } finally {
+                mReloadLock.readLock().unlock();
+            }
+        }
+        return bundle;
+    }
+
+    public static SettingsCache forTable(String tableName) {
+        if ("system".equals(tableName)) {
+            return SettingsProvider.sSystemCache;
+        }
+        if ("secure".equals(tableName)) {
+            return SettingsProvider.sSecureCache;
+        }
+        return null;
+    }
+
+    /**
+     * Populates a key in a given (possibly-null) cache.
+     */
+    public static void populate(SettingsCache cache, ContentValues contentValues) {
+        if (cache == null) {
+            return;
+        }
+        String name = contentValues.getAsString(Settings.NameValueTable.NAME);
+        if (name == null) {
+            Log.w(TAG, "null name populating settings cache.");
+            return;
+        }
+        String value = contentValues.getAsString(Settings.NameValueTable.VALUE);
+        cache.populate(name, value);
+    }
+
+    public void populate(String name, String value) {
+        Bundle bundle = toBundle(value);
+        mReloadLock.readLock().lock();
+        try {
+            Bundle old = mEntries.put(name, bundle);
+            mBytes.addAndGet(sizeOf(name, bundle) - sizeOf(name, old));
+            trimToSize();
+        } finally {
+            mReloadLock.readLock().unlock();
+        }
+    }
+
+    private static Bundle toBundle(String value) {
+        if (value == null) {
+            return NULL_SETTING;
+        }
+        if (value.length() <= MAX_CACHE_ENTRY_SIZE) {
+            return Bundle.forPair(Settings.NameValueTable.VALUE, value);
+        }
+        return TOO_LARGE_TO_CACHE_MARKER;
+    }
+
+    // Keeps the cache within mMaxBytes.  There is no access order to
+    // evict by, so arbitrary keys go; the cache then no longer matches
+    // disk and misses fall through to sqlite.
+    private void trimToSize() {
+        if (mBytes.get() <= mMaxBytes) {
+            return;
+        }
+        mCacheFullyMatchesDisk = false;
+        ConcurrentHashMap<String, Bundle> entries = mEntries;
+        Iterator<String> it = entries.keySet().iterator();
+        while (mBytes.get() > mMaxBytes && it.hasNext()) {
+            String key = it.next();
+            Bundle old = entries.remove(key);
+            mBytes.addAndGet(-sizeOf(key, old));
+        }
+    }
+
+    /**
+     * Replaces the whole cache with the (name, value) rows of the given
+     * cursor, as long as they fit in the memory budget.  Single-key
+     * writers are held off until the new contents are published, so
+     * none of their updates can be lost.
+     *
+     * @returns the number of rows read.
+     */
+    public int fullyPopulate(Cursor c) {
+        mReloadLock.writeLock().lock();
+        try {
+            ConcurrentHashMap<String, Bundle> entries = newEntries();
+            int bytes = 0;
+            int rows = 0;
+            boolean fits = true;
+            while (c.moveToNext()) {
+                rows++;
+                String name = c.getString(0);
+                Bundle bundle = toBundle(c.getString(1));
+                int size = sizeOf(name, bundle);
+                if (bytes + size > mMaxBytes) {
+                    fits = false;
+                    break;
+                }
+                entries.put(name, bundle);
+                bytes += size;
+            }
+            mEntries = entries;
+            mBytes.set(bytes);
+            mCacheFullyMatchesDisk = fits;
+            mFullPopulations++;
+            return rows;
+        } finally {
+            mReloadLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @returns the number of wholesale reloads so far.
+     */
+    public int getFullPopulations() {
+        mReloadLock.readLock().lock();
+        try {
+            return mFullPopulations;
+        } finally {
+            mReloadLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the given keys as absent after they were deleted from disk,
+     * so later lookups are answered from memory even when the cache
+     * doesn't fully match disk.
+     */
+    public void evictNames(String[] names) {
+        mReloadLock.readLock().lock();
+        try {
+            for (String name : names) {
+                Bundle old = mEntries.put(name, NULL_SETTING);
+                mBytes.addAndGet(sizeOf(name, NULL_SETTING) - sizeOf(name, old));
+            }
+            trimToSize();
+        } finally {
+            mReloadLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an update() of the rows 'names' to the cache in place.
+     *
+     * @returns false if the change can't be mirrored key by key (a
+     *     rename without a new value), in which case the caller must
+     *     invalidate the whole table.
+     */
+    public boolean applyUpdate(String[] names, ContentValues values) {
+        boolean hasValue = values.containsKey(Settings.NameValueTable.VALUE);
+        String value = values.getAsString(Settings.NameValueTable.VALUE);
+        if (!values.containsKey(Settings.NameValueTable.NAME)) {
+            if (hasValue) {
+                for (String name : names) {
+                    populate(name, value);
+                }
+            }
+            return true;
+        }
+        if (!hasValue) {
+            return false;
+        }
+        String newName = values.getAsString(Settings.NameValueTable.NAME);
+        if (newName == null) {
+            return false;
+        }
+        evictNames(names);
+        populate(newName, value);
+        return true;
+    }
+
+    /**
+     * Used for wiping a whole cache on deletes when we're not
+     * sure what exactly was deleted or changed.
+     */
+    public static void invalidate(String tableName) {
+        SettingsCache cache = SettingsCache.forTable(tableName);
+        if (cache == null) {
+            return;
+        }
+        cache.mReloadLock.writeLock().lock();
+        try {
+            cache.mCacheFullyMatchesDisk = false;
+            cache.mEntries = newEntries();
+            cache.mBytes.set(0);
+        } finally {
+            cache.mReloadLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * For suppressing duplicate/redundant settings inserts early,
+     * checking our cache first (but without faulting it in),
+     * before going to sqlite with the mutation.
+     */
+    public static boolean isRedundantSetValue(SettingsCache cache, String name, String value) {
+        if (cache == null) return false;
+        Bundle bundle = cache.get(name);
+        if (bundle == null) return false;
+        String oldValue = bundle.getPairValue();
+        if (oldValue == null && value == null) return true;
+        if ((oldValue == null) != (value == null)) return false;
+        return oldValue.equals(value);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.print("  Cache for "); pw.print(mCacheName); pw.println(":");
+        pw.print("    entries="); pw.print(size());
+        pw.print(" bytes="); pw.print(sizeInBytes());
+        pw.print("/"); pw.print(mMaxBytes);
+        pw.print(" fullyMatchesDisk="); pw.print(fullyMatchesDisk());
+        pw.print(" fullReloads="); pw.println(getFullPopulations());
+        pw.print("    hits="); pw.print(mHits.get());
+        pw.print(" negativeHits="); pw.print(mNegativeHits.get());
+        pw.print(" misses="); pw.println(mMisses.get());
+    }
+}
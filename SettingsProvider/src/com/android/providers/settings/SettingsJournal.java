@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * Write-behind store for inserts into the system and secure tables.
+ *
+ * An insert is recorded in memory and appended to a small journal file
+ * next to settings.db, then returns without touching sqlite.  A
+ * background thread writes the journal in groups, fsyncing once per
+ * group, and periodically folds the pending changes into settings.db in
+ * a single transaction, after which the journal is rewritten to hold only
+ * what is still pending.
+ *
+ * Each journal record carries its length and a CRC32, so a record torn
+ * by a crash is detected and replay stops there.  {@link #recover} must
+ * run before anything reads the database.
+ *
+ * Anything that reads or mutates the tables through sqlite directly
+ * must call {@link #applyPending} first so that it sees, and is ordered
+ * after, every journaled insert.
+ */
+final class SettingsJournal {
+    private static final String TAG = "SettingsProvider";
+
+    static final String JOURNAL_ENABLED_PROPERTY = "persist.sys.settings_journal";
+
+    private static final String JOURNAL_NAME = "settings.journal";
+
+    // How long appended records may sit in memory before they are
+    // written and fsynced as a group.
+    private static final long GROUP_COMMIT_MS = 100;
+
+    // How often, at most, pending changes are folded into settings.db.
+    private static final long COMPACT_INTERVAL_MS = 2000;
+
+    // Fold immediately once this many keys are pending.
+    private static final int MAX_PENDING = 64;
+
+    private static final byte TABLE_SYSTEM = 0;
+    private static final byte TABLE_SECURE = 1;
+
+    /**
+     * A pending value.  A distinct instance per insert, so compaction can
+     * tell by identity whether a key was overwritten meanwhile.
+     */
+    static final class Pending {
+        final String table;
+        final String name;
+        final String value;
+
+        Pending(String table, String name, String value) {
+            this.table = table;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final File mFile;
+    private final Handler mHandler;
+    private final Object mCompactLock = new Object();
+
+    // Guarded by this.  Keyed by table + '/' + name, in insertion order.
+    private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<String, Pending>();
+    private final ByteArrayOutputStream mUnwritten = new ByteArrayOutputStream();
+    private boolean mFlushScheduled = false;
+
+    // Written under mCompactLock.
+    private volatile long mLastCompact = 0;
+
+    // Statistics.  Guarded by this.
+    private long mAppends = 0;
+    private long mGroupCommits = 0;
+    private long mCompactions = 0;
+    private long mCompactMillis = 0;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    SettingsJournal(SQLiteOpenHelper openHelper, File dbFile) {
+        mOpenHelper = openHelper;
+        mFile = new File(dbFile.getParentFile(), JOURNAL_NAME);
+        HandlerThread thread = new HandlerThread("settings-journal",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static boolean isJournaledTable(String table) {
+        return "system".equals(table) || "secure".equals(table);
+    }
+
+    /**
+     * Replays whatever a previous run left in the journal into the
+     * database, then empties it.  Stops at the first torn or corrupt
+     * record.
+     *
+     * @return the number of records replayed.
+     */
+    public int recover() {
+        if (!mFile.exists()) {
+            return 0;
+        }
+        LinkedHashMap<String, Pending> replayed = new LinkedHashMap<String, Pending>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                long checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > (1 << 20)) {
+                    Log.w(TAG, "corrupt settings journal record length " + length);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    Log.w(TAG, "torn settings journal record; dropping it");
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    Log.w(TAG, "settings journal checksum mismatch; dropping the tail");
+                    break;
+                }
+                Pending p = decode(payload);
+                replayed.put(p.table + '/' + p.name, p);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "error reading settings journal", e);
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException e) { }
+            }
+        }
+
+        if (!replayed.isEmpty() && !applyToDatabase(replayed.values())) {
+            // Leave the journal for the next attempt.
+            return 0;
+        }
+        Log.d(TAG, "replayed " + replayed.size() + " settings from journal");
+        truncate();
+        return replayed.size();
+    }
+
+    /**
+     * Records an insert of (name, value) into 'table'.  Returns as soon
+     * as the change is in memory.
+     */
+    public void append(String table, String name, String value) {
+        Pending p = new Pending(table, name, value);
+        byte[] record = encodeRecord(p);
+        synchronized (this) {
+            mPending.remove(table + '/' + name);  // keep insertion order current
+            mPending.put(table + '/' + name, p);
+            mUnwritten.write(record, 0, record.length);
+            mAppends++;
+            if (mPending.size() >= MAX_PENDING) {
+                mHandler.removeCallbacks(mFlush);
+                mHandler.post(mFlush);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mHandler.postDelayed(mFlush, GROUP_COMMIT_MS);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * @return the pending, not yet compacted, insert of 'name' in
+     *     'table', or null if there is none.
+     */
+    public synchronized Pending getPending(String table, String name) {
+        return mPending.get(table + '/' + name);
+    }
+
+    /**
+     * Held while a cache is reloaded from the database, so that no
+     * compaction can move inserts out of the pending set between the
+     * database read and {@link #overlayPending}.
+     */
+    public Object getCompactLock() {
+        return mCompactLock;
+    }
+
+    /**
+     * Re-applies the pending inserts of 'table' to a cache just reloaded
+     * from the database.
+     */
+    public void overlayPending(String table, SettingsCache cache) {
+        synchronized (this) {
+            for (Pending p : mPending.values()) {
+                if (p.table.equals(table)) {
+                    cache.populate(p.name, p.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Folds every pending insert into the database before returning.
+     */
+    public void applyPending() {
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    private void flush() {
+        // Appends are serialized with compaction, which rewrites the file;
+        // a stale group landing after a rewrite could be replayed over a
+        // newer value.  So the group is taken under mCompactLock as well:
+        // a compaction either ran before, and left only newer records in
+        // mUnwritten, or runs after this group is on disk.
+        synchronized (mCompactLock) {
+            byte[] group;
+            synchronized (this) {
+                mFlushScheduled = false;
+                group = mUnwritten.toByteArray();
+                mUnwritten.reset();
+            }
+            if (group.length > 0) {
+                appendGroup(group);
+            }
+        }
+
+        boolean due;
+        synchronized (this) {
+            due = mPending.size() >= MAX_PENDING
+                    || SystemClock.uptimeMillis() - mLastCompact >= COMPACT_INTERVAL_MS;
+            if (!due && !mPending.isEmpty() && !mFlushScheduled) {
+                mHandler.postDelayed(mFlush, COMPACT_INTERVAL_MS);
+                mFlushScheduled = true;
+            }
+        }
+        if (due) {
+            compact();
+        }
+    }
+
+    // Writes and fsyncs a group of records at the end of the journal.
+    // Called with mCompactLock held.
+    private void appendGroup(byte[] group) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            out.write(group);
+            out.getFD().sync();
+            synchronized (this) {
+                mGroupCommits++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "error appending to settings journal", e);
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (IOException e) { }
+            }
+        }
+    }
+
+    private void compact() {
+        synchronized (mCompactLock) {
+            long start = SystemClock.uptimeMillis();
+            Pending[] snapshot;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                snapshot = mPending.values().toArray(new Pending[mPending.size()]);
+            }
+
+            if (!applyToDatabase(Arrays.asList(snapshot))) {
+                return;
+            }
+
+            Pending[] remaining;
+            synchronized (this) {
+                for (Pending p : snapshot) {
+                    String key = p.table + '/' + p.name;
+                    if (mPending.get(key) == p) {
+                        mPending.remove(key);
+                    }
+                }
+                // What's left was inserted while we were committing; it
+                // becomes the whole journal, including anything not yet
+                // written out.  Later appends go to mUnwritten again and
+                // can't reach the file before the rewrite, since flush()
+                // needs mCompactLock.
+                remaining = mPending.values().toArray(new Pending[mPending.size()]);
+                mUnwritten.reset();
+            }
+            // The file I/O happens outside this, so append() never waits
+            // for an fsync.
+            rewrite(remaining);
+
+            synchronized (this) {
+                mCompactions++;
+                mCompactMillis += SystemClock.uptimeMillis() - start;
+            }
+            mLastCompact = SystemClock.uptimeMillis();
+        }
+    }
+
+    private boolean applyToDatabase(Iterable<Pending> changes) {
+        SettingsProvider.noteKnownMutationStart();
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues(2);
+                for (Pending p : changes) {
+                    values.put(Settings.NameValueTable.NAME, p.name);
+                    values.put(Settings.NameValueTable.VALUE, p.value);
+                    if (db.insert(p.table, null, values) < 0) {
+                        Log.w(TAG, "failed to compact " + p.table + "/" + p.name);
+                        return false;
+                    }
+                }
+                db.setTransactionSuccessful();
+                return true;
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            SettingsProvider.noteKnownMutationEnd();
+        }
+    }
+
+    // Replaces the journal with 'records'.  Called with mCompactLock held.
+    private void rewrite(Pending[] records) {
+        if (records.length == 0) {
+            truncate();
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            for (Pending p : records) {
+                out.write(encodeRecord(p));
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.w(TAG, "couldn't replace settings journal");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "error rewriting settings journal", e);
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (IOException e) { }
+            }
+        }
+    }
+
+    private void truncate() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "couldn't delete settings journal");
+        }
+    }
+
+    private static byte[] encodeRecord(Pending p) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeByte("secure".equals(p.table) ? TABLE_SECURE : TABLE_SYSTEM);
+            writeString(data, p.name);
+            writeString(data, p.value);
+            byte[] bytes = payload.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 12);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(bytes.length);
+            out.writeLong(crc.getValue());
+            out.write(bytes);
+            return record.toByteArray();
+        } catch (IOException e) {
+            // Can't happen with in-memory streams.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Pending decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String table = (in.readByte() == TABLE_SECURE) ? "secure" : "system";
+        String name = readString(in);
+        String value = readString(in);
+        return new Pending(table, name, value);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (this) {
+            pw.println("  Write-behind journal:");
+            pw.print("    appends="); pw.print(mAppends);
+            pw.print(" groupCommits="); pw.print(mGroupCommits);
+            pw.print(" compactions="); pw.print(mCompactions);
+            pw.print(" compactMs="); pw.print(mCompactMillis);
+            pw.print(" pending="); pw.println(mPending.size());
+        }
+    }
+}
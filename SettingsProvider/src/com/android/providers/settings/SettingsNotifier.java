@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.app.backup.BackupManager;
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemProperties;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * Coalesces the side effects of settings writes.
+ *
+ * The SYS_PROP_SETTING_VERSION bump stays synchronous with each write,
+ * since Settings.NameValueCache in the writing process relies on it to
+ * see its own change on the next read.  Inside a batch (see
+ * {@link #beginBatch}) it is bumped once per table when the outermost
+ * batch ends, still before the write returns to its caller.
+ *
+ * Content notifications and BackupManager.dataChanged() are deferred
+ * by up to NOTIFY_WINDOW_MS and delivered from a background thread,
+ * with duplicate URIs dropped.  A table with more than
+ * MAX_URIS_PER_TABLE distinct pending rows gets one notification for
+ * the whole table instead, which ContentService also delivers to the
+ * observers of each row.
+ */
+final class SettingsNotifier {
+    private static final String TAG = "SettingsProvider";
+    private static final boolean LOCAL_LOGV = false;
+
+    // How long a change notification may be held back to be merged
+    // with others.  Roughly one frame.
+    private static final long NOTIFY_WINDOW_MS = 20;
+
+    // Past this many distinct rows of one table in a window, notify the
+    // table URI once rather than each row.
+    private static final int MAX_URIS_PER_TABLE = 8;
+
+    private final ContentResolver mResolver;
+    private final BackupManager mBackupManager;
+    private final Handler mHandler;
+
+    // Guarded by this.
+    private final LinkedHashSet<Uri> mPendingUris = new LinkedHashSet<Uri>();
+    private boolean mPendingBackup = false;
+    private boolean mFlushScheduled = false;
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mVersionBumps = new AtomicLong();
+
+    private static final class Batch {
+        int depth;
+        final HashSet<String> tables = new HashSet<String>();
+    }
+
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            return new Batch();
+        }
+    };
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    SettingsNotifier(ContentResolver resolver, BackupManager backupManager) {
+        mResolver = resolver;
+        mBackupManager = backupManager;
+        HandlerThread thread = new HandlerThread("settings-notifier",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Starts a batch of writes on the calling thread.  Batches nest;
+     * every call must be paired with {@link #endBatch} in a finally.
+     */
+    public void beginBatch() {
+        mBatch.get().depth++;
+    }
+
+    /**
+     * Ends a batch, bumping the version property of every table
+     * touched by it once the outermost batch is done.
+     */
+    public void endBatch() {
+        Batch batch = mBatch.get();
+        if (--batch.depth > 0) {
+            return;
+        }
+        for (String table : batch.tables) {
+            bumpVersion(table);
+        }
+        batch.tables.clear();
+    }
+
+    /**
+     * Records a change to 'uri'.
+     */
+    public void notifyChange(Uri uri) {
+        mRequested.incrementAndGet();
+        String table = uri.getPathSegments().get(0);
+        boolean backedUp = "system".equals(table) || "secure".equals(table);
+
+        // Update the system property *first*, so if someone is listening for
+        // a notification and then using the contract class to get their data,
+        // the system property will be updated and they'll get the new data.
+        Batch batch = mBatch.get();
+        if (batch.depth > 0) {
+            batch.tables.add(table);
+        } else {
+            bumpVersion(table);
+        }
+
+        String notify = uri.getQueryParameter("notify");
+        boolean send = (notify == null || "true".equals(notify));
+        if (!send && LOCAL_LOGV) Log.v(TAG, "notification suppressed: " + uri);
+
+        synchronized (this) {
+            if (send) {
+                mPendingUris.add(uri);
+            }
+            mPendingBackup |= backedUp;
+            if (!mFlushScheduled && (send || backedUp)) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlush, NOTIFY_WINDOW_MS);
+            }
+        }
+    }
+
+    private void bumpVersion(String table) {
+        String property = null;
+        if (table.equals("system")) {
+            property = Settings.System.SYS_PROP_SETTING_VERSION;
+        } else if (table.equals("secure")) {
+            property = Settings.Secure.SYS_PROP_SETTING_VERSION;
+        }
+        if (property != null) {
+            long version = SystemProperties.getLong(property, 0) + 1;
+            if (LOCAL_LOGV) Log.v(TAG, "property: " + property + "=" + version);
+            SystemProperties.set(property, Long.toString(version));
+            mVersionBumps.incrementAndGet();
+        }
+    }
+
+    private void flush() {
+        ArrayList<Uri> uris;
+        boolean backup;
+        synchronized (this) {
+            uris = new ArrayList<Uri>(mPendingUris);
+            mPendingUris.clear();
+            backup = mPendingBackup;
+            mPendingBackup = false;
+            mFlushScheduled = false;
+        }
+
+        // Inform the backup manager about a data change
+        if (backup) {
+            mBackupManager.dataChanged();
+        }
+
+        // Group by table, collapsing tables with too many changed rows.
+        HashMap<String, Integer> perTable = new HashMap<String, Integer>();
+        for (Uri uri : uris) {
+            String table = uri.getPathSegments().get(0);
+            Integer count = perTable.get(table);
+            perTable.put(table, count == null ? 1 : count + 1);
+        }
+        HashSet<String> collapsed = new HashSet<String>();
+        for (Uri uri : uris) {
+            String table = uri.getPathSegments().get(0);
+            if (perTable.get(table) > MAX_URIS_PER_TABLE) {
+                if (!collapsed.add(table)) {
+                    continue;
+                }
+                uri = new Uri.Builder().scheme(uri.getScheme())
+                        .authority(uri.getAuthority()).appendPath(table).build();
+            }
+            mResolver.notifyChange(uri, null);
+            mDelivered.incrementAndGet();
+            if (LOCAL_LOGV) Log.v(TAG, "notifying: " + uri);
+        }
+    }
+
+    /** Number of change notifications requested by writes. */
+    public long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    /** Number of notifyChange() calls actually made. */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /** Number of requested notifications merged away or suppressed. */
+    public long getSuppressedCount() {
+        synchronized (this) {
+            return mRequested.get() - mDelivered.get() - mPendingUris.size();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("  Change notifications:");
+        pw.print("    requested="); pw.print(getRequestedCount());
+        pw.print(" delivered="); pw.print(getDeliveredCount());
+        pw.print(" suppressed="); pw.print(getSuppressedCount());
+        pw.print(" versionBumps="); pw.println(mVersionBumps.get());
+    }
+}
@@ -16,8 +16,12 @@
 
 package com.android.providers.settings;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,7 +47,6 @@ import android.provider.MediaStore;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.LruCache;
 
 public class SettingsProvider extends ContentProvider {
     private static final String TAG = "SettingsProvider";
@@ -54,11 +57,34 @@ public class SettingsProvider extends ContentProvider {
 
     private static final String[] COLUMN_VALUE = new String[] { "value" };
 
-    // Cache for settings, access-ordered for acting as LRU.
-    // Guarded by themselves.
-    private static final int MAX_CACHE_ENTRIES = 200;
-    private static final SettingsCache sSystemCache = new SettingsCache("system");
-    private static final SettingsCache sSecureCache = new SettingsCache("secure");
+    // call() methods reading many settings in one binder transaction.  The
+    // names go in a String[] extra under CALL_EXTRA_NAMES; the reply maps
+    // each name to its (possibly null) value.
+    static final String CALL_METHOD_GET_SYSTEM_BATCH = "GET_system_batch";
+    static final String CALL_METHOD_GET_SECURE_BATCH = "GET_secure_batch";
+    static final String CALL_EXTRA_NAMES = "names";
+
+    // call() methods applying a restored set of settings in one
+    // transaction.  Names and values go in parallel String[] extras under
+    // CALL_EXTRA_NAMES and CALL_EXTRA_VALUES; the reply carries the number
+    // of settings actually changed under CALL_EXTRA_COUNT.
+    static final String CALL_METHOD_RESTORE_SYSTEM = "RESTORE_system";
+    static final String CALL_METHOD_RESTORE_SECURE = "RESTORE_secure";
+    static final String CALL_EXTRA_VALUES = "values";
+    static final String CALL_EXTRA_COUNT = "count";
+
+    // call() method returning the provider's statistics as text under
+    // CALL_EXTRA_DUMP; needs android.permission.DUMP.  ContentProvider has
+    // no dumpsys hook of its own on this platform.
+    static final String CALL_METHOD_DUMP = "DUMP";
+    static final String CALL_EXTRA_DUMP = "dump";
+
+    // SQLite refuses statements with more than 999 bind arguments.
+    private static final int MAX_BATCH_QUERY_ARGS = 500;
+
+    // Cache for settings.  Safe for lock-free reads from any binder thread.
+    static final SettingsCache sSystemCache = new SettingsCache("system");
+    static final SettingsCache sSecureCache = new SettingsCache("secure");
 
     // The count of how many known (handled by SettingsProvider)
     // database mutations are currently being handled.  Used by
@@ -66,19 +92,14 @@ public class SettingsProvider extends ContentProvider {
     // modifying it.
     private static final AtomicInteger sKnownMutationsInFlight = new AtomicInteger(0);
 
-    // Over this size we don't reject loading or saving settings but
-    // we do consider them broken/malicious and don't keep them in
-    // memory at least:
-    private static final int MAX_CACHE_ENTRY_SIZE = 500;
-
-    private static final Bundle NULL_SETTING = Bundle.forPair("value", null);
-
-    // Used as a sentinel value in an instance equality test when we
-    // want to cache the existence of a key, but not store its value.
-    private static final Bundle TOO_LARGE_TO_CACHE_MARKER = Bundle.forPair("_dummy", null);
+    // Past this many rows touched by a single update() or delete() we
+    // stop tracking the affected names and just reload the whole table.
+    private static final int MAX_TRACKED_MUTATIONS = 20;
 
     protected DatabaseHelper mOpenHelper;
-    private BackupManager mBackupManager;
+    private SettingsJournal mJournal;
+    private boolean mUseJournal;
+    private SettingsNotifier mNotifier;
 
     /**
      * Decode a content URL into the table, projection, and arguments
@@ -157,42 +178,11 @@ public class SettingsProvider extends ContentProvider {
      * Modify the system property used to communicate the version of
      * this table, for tables which have such a property.  (The Settings
      * contract class uses these to provide client-side caches.)
+     * Notifications are coalesced by {@link SettingsNotifier}.
      * @param uri to send notifications for
      */
     private void sendNotify(Uri uri) {
-        // Update the system property *first*, so if someone is listening for
-        // a notification and then using the contract class to get their data,
-        // the system property will be updated and they'll get the new data.
-
-        boolean backedUpDataChanged = false;
-        String property = null, table = uri.getPathSegments().get(0);
-        if (table.equals("system")) {
-            property = Settings.System.SYS_PROP_SETTING_VERSION;
-            backedUpDataChanged = true;
-        } else if (table.equals("secure")) {
-            property = Settings.Secure.SYS_PROP_SETTING_VERSION;
-            backedUpDataChanged = true;
-        }
-
-        if (property != null) {
-            long version = SystemProperties.getLong(property, 0) + 1;
-            if (LOCAL_LOGV) Log.v(TAG, "property: " + property + "=" + version);
-            SystemProperties.set(property, Long.toString(version));
-        }
-
-        // Inform the backup manager about a data change
-        if (backedUpDataChanged) {
-            mBackupManager.dataChanged();
-        }
-        // Now send the notification through the content framework.
-
-        String notify = uri.getQueryParameter("notify");
-        if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
-            if (LOCAL_LOGV) Log.v(TAG, "notifying: " + uri);
-        } else {
-            if (LOCAL_LOGV) Log.v(TAG, "notification suppressed: " + uri);
-        }
+        mNotifier.notifyChange(uri);
     }
 
     /**
@@ -251,7 +241,15 @@ public class SettingsProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
-        mBackupManager = new BackupManager(getContext());
+        mNotifier = new SettingsNotifier(getContext().getContentResolver(),
+                new BackupManager(getContext()));
+
+        // Replay anything a previous run left in the write-behind journal
+        // before the database is read, even if the journal is now off.
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mJournal = new SettingsJournal(mOpenHelper, new File(db.getPath()));
+        mJournal.recover();
+        mUseJournal = SystemProperties.getBoolean(SettingsJournal.JOURNAL_ENABLED_PROPERTY, false);
 
         if (!ensureAndroidIdIsSet()) {
             return false;
@@ -259,13 +257,28 @@ public class SettingsProvider extends ContentProvider {
 
         // Watch for external modifications to the database file,
         // keeping our cache in sync.
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         sObserverInstance = new SettingsFileObserver(db.getPath());
         sObserverInstance.startWatching();
         startAsyncCachePopulation();
         return true;
     }
 
+    static void noteKnownMutationStart() {
+        sKnownMutationsInFlight.incrementAndGet();
+    }
+
+    static void noteKnownMutationEnd() {
+        sKnownMutationsInFlight.decrementAndGet();
+    }
+
+    // Folds journaled inserts into sqlite before 'table' is read or
+    // mutated there directly.
+    private void applyPendingJournal(String table) {
+        if (SettingsJournal.isJournaledTable(table)) {
+            mJournal.applyPending();
+        }
+    }
+
     private void startAsyncCachePopulation() {
         new Thread("populate-settings-caches") {
             public void run() {
@@ -281,34 +294,26 @@ public class SettingsProvider extends ContentProvider {
 
     // Slurp all values (if sane in number & size) into cache.
     private void fullyPopulateCache(String table, SettingsCache cache) {
-        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
-        Cursor c = db.query(
-            table,
-            new String[] { Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE },
-            null, null, null, null, null,
-            "" + (MAX_CACHE_ENTRIES + 1) /* limit */);
-        try {
-            synchronized (cache) {
-                cache.evictAll();
-                cache.setFullyMatchesDisk(true);  // optimistic
-                int rows = 0;
-                while (c.moveToNext()) {
-                    rows++;
-                    String name = c.getString(0);
-                    String value = c.getString(1);
-                    cache.populate(name, value);
+        synchronized (mJournal.getCompactLock()) {
+            mJournal.applyPending();
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            Cursor c = db.query(
+                table,
+                new String[] { Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE },
+                null, null, null, null, null);
+            try {
+                int rows = cache.fullyPopulate(c);
+                if (!cache.fullyMatchesDisk()) {
+                    Log.d(TAG, "settings table " + table + " exceeds the cache memory budget");
                 }
-                if (rows > MAX_CACHE_ENTRIES) {
-                    // Somewhat redundant, as removeEldestEntry() will
-                    // have already done this, but to be explicit:
-                    cache.setFullyMatchesDisk(false);
-                    Log.d(TAG, "row count exceeds max cache entries for table " + table);
-                }
-                Log.d(TAG, "cache for settings table '" + table + "' rows=" + rows + "; fullycached=" +
-                      cache.fullyMatchesDisk());
+                Log.d(TAG, "cache for settings table '" + table + "' rows=" + rows +
+                      "; fullycached=" + cache.fullyMatchesDisk() +
+                      "; full reloads=" + cache.getFullPopulations());
+            } finally {
+                c.close();
             }
-        } finally {
-            c.close();
+            // Inserts that raced in after applyPending().
+            mJournal.overlayPending(table, cache);
         }
     }
 
@@ -348,28 +353,190 @@ public class SettingsProvider extends ContentProvider {
         if (Settings.CALL_METHOD_GET_SECURE.equals(method)) {
             return lookupValue("secure", sSecureCache, request);
         }
+        if (CALL_METHOD_GET_SYSTEM_BATCH.equals(method)) {
+            return lookupValues("system", sSystemCache, args);
+        }
+        if (CALL_METHOD_GET_SECURE_BATCH.equals(method)) {
+            return lookupValues("secure", sSecureCache, args);
+        }
+        if (CALL_METHOD_RESTORE_SYSTEM.equals(method)) {
+            return restoreValues("system", args);
+        }
+        if (CALL_METHOD_RESTORE_SECURE.equals(method)) {
+            return restoreValues("secure", args);
+        }
+        if (CALL_METHOD_DUMP.equals(method)) {
+            return dumpValues();
+        }
         return null;
     }
 
+    /**
+     * Applies a restored set of settings to 'table' in a single
+     * transaction.  Values that already match the cache are skipped, the
+     * cache is updated in place once the transaction commits, and
+     * observers get one notification for the whole table.
+     */
+    private Bundle restoreValues(String table, Bundle args) {
+        String[] names = (args != null) ? args.getStringArray(CALL_EXTRA_NAMES) : null;
+        String[] values = (args != null) ? args.getStringArray(CALL_EXTRA_VALUES) : null;
+        if (names == null || values == null || names.length != values.length) {
+            throw new IllegalArgumentException("Mismatched restore names and values");
+        }
+        // call() isn't covered by the provider's manifest permissions.
+        getContext().enforceCallingOrSelfPermission(
+                "secure".equals(table)
+                        ? android.Manifest.permission.WRITE_SECURE_SETTINGS
+                        : android.Manifest.permission.WRITE_SETTINGS,
+                "Permission denial: restoring " + table + " settings");
+
+        SettingsCache cache = SettingsCache.forTable(table);
+        applyPendingJournal(table);
+
+        ArrayList<String> changedNames = new ArrayList<String>(names.length);
+        ArrayList<String> changedValues = new ArrayList<String>(names.length);
+        sKnownMutationsInFlight.incrementAndGet();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mNotifier.beginBatch();
+        try {
+            db.beginTransaction();
+            try {
+                ContentValues row = new ContentValues(2);
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i] == null
+                            || SettingsCache.isRedundantSetValue(cache, names[i], values[i])) {
+                        continue;
+                    }
+                    row.put(Settings.NameValueTable.NAME, names[i]);
+                    row.put(Settings.NameValueTable.VALUE, values[i]);
+                    if (db.insert(table, null, row) < 0) {
+                        Log.w(TAG, "restore of " + table + " failed at " + names[i]);
+                        return null;
+                    }
+                    changedNames.add(names[i]);
+                    changedValues.add(values[i]);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                sKnownMutationsInFlight.decrementAndGet();
+            }
+
+            // before we notify
+            for (int i = 0; i < changedNames.size(); i++) {
+                cache.populate(changedNames.get(i), changedValues.get(i));
+            }
+            if (LOCAL_LOGV) Log.v(TAG, table + ": restored " + changedNames.size() + " row(s)");
+            if (!changedNames.isEmpty()) {
+                sendNotify(Uri.parse("content://" + Settings.AUTHORITY + "/" + table));
+            }
+        } finally {
+            mNotifier.endBatch();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(CALL_EXTRA_COUNT, changedNames.size());
+        return result;
+    }
+
+    // Looks up every name in args' CALL_EXTRA_NAMES array in 'table' and
+    // returns a Bundle mapping each name to its value (possibly null), or
+    // null on failure.  Cached values are answered directly; the rest are
+    // read from disk with as few IN (...) queries as the bind limit allows.
+    private Bundle lookupValues(String table, SettingsCache cache, Bundle args) {
+        String[] names = (args != null) ? args.getStringArray(CALL_EXTRA_NAMES) : null;
+        if (names == null) {
+            return null;
+        }
+        Bundle result = new Bundle();
+        ArrayList<String> misses = null;
+        for (String name : names) {
+            if (name == null || result.containsKey(name)) {
+                continue;
+            }
+            Bundle value = cache.get(name);
+            if (value != null && value != SettingsCache.TOO_LARGE_TO_CACHE_MARKER) {
+                cache.noteHit(value);
+                result.putString(name, value.getPairValue());
+            } else if (value == null && cache.fullyMatchesDisk()) {
+                cache.noteNegativeHit();
+                result.putString(name, null);
+            } else {
+                cache.noteMiss();
+                if (misses == null) {
+                    misses = new ArrayList<String>();
+                }
+                misses.add(name);
+            }
+        }
+        if (misses == null) {
+            return result;
+        }
+
+        applyPendingJournal(table);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        for (int start = 0; start < misses.size(); start += MAX_BATCH_QUERY_ARGS) {
+            int end = Math.min(start + MAX_BATCH_QUERY_ARGS, misses.size());
+            String[] selectionArgs = misses.subList(start, end).toArray(new String[end - start]);
+            StringBuilder where = new StringBuilder(Settings.NameValueTable.NAME).append(" IN (");
+            for (int i = 0; i < selectionArgs.length; i++) {
+                where.append(i == 0 ? "?" : ",?");
+            }
+            where.append(')');
+
+            Cursor cursor = null;
+            try {
+                cursor = db.query(table,
+                        new String[] { Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE },
+                        where.toString(), selectionArgs, null, null, null, null);
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(0);
+                    String value = cursor.getString(1);
+                    cache.putIfAbsent(name, value);
+                    result.putString(name, value);
+                }
+            } catch (SQLiteException e) {
+                Log.w(TAG, "settings batch lookup error", e);
+                return null;
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+            for (String name : selectionArgs) {
+                if (!result.containsKey(name)) {
+                    cache.putIfAbsent(name, null);
+                    result.putString(name, null);
+                }
+            }
+        }
+        return result;
+    }
+
     // Looks up value 'key' in 'table' and returns either a single-pair Bundle,
     // possibly with a null value, or null on failure.
     private Bundle lookupValue(String table, SettingsCache cache, String key) {
-        synchronized (cache) {
-            Bundle value = cache.get(key);
-            if (value != null) {
-                if (value != TOO_LARGE_TO_CACHE_MARKER) {
-                    return value;
-                }
-                // else we fall through and read the value from disk
-            } else if (cache.fullyMatchesDisk()) {
-                // Fast path (very common).  Don't even try touch disk
-                // if we know we've slurped it all in.  Trying to
-                // touch the disk would mean waiting for yaffs2 to
-                // give us access, which could takes hundreds of
-                // milliseconds.  And we're very likely being called
-                // from somebody's UI thread...
-                return NULL_SETTING;
+        // No lock: SettingsCache reads are safe from any binder thread.
+        Bundle value = cache.get(key);
+        if (value != null) {
+            if (value != SettingsCache.TOO_LARGE_TO_CACHE_MARKER) {
+                cache.noteHit(value);
+                return value;
             }
+            // else we fall through and read the value from disk
+        } else if (cache.fullyMatchesDisk()) {
+            // Fast path (very common).  Don't even try touch disk
+            // if we know we've slurped it all in.  Trying to
+            // touch the disk would mean waiting for yaffs2 to
+            // give us access, which could takes hundreds of
+            // milliseconds.  And we're very likely being called
+            // from somebody's UI thread...
+            cache.noteNegativeHit();
+            return SettingsCache.NULL_SETTING;
+        }
+        cache.noteMiss();
+
+        SettingsJournal.Pending pending = mJournal.getPending(table, key);
+        if (pending != null) {
+            return cache.putIfAbsent(key, pending.value);
         }
 
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
@@ -388,7 +555,35 @@ public class SettingsProvider extends ContentProvider {
             if (cursor != null) cursor.close();
         }
         cache.putIfAbsent(key, null);
-        return NULL_SETTING;
+        return SettingsCache.NULL_SETTING;
+    }
+
+    /**
+     * Returns the names of the rows an update() or delete() with these
+     * arguments is about to touch, so that only those cache entries need
+     * to change.  Must be called inside the mutation's transaction.
+     *
+     * @return the affected names, or null if there are too many of them
+     *     to be worth tracking one by one.
+     */
+    private static String[] queryAffectedNames(SQLiteDatabase db, SqlArguments args) {
+        Cursor c = db.query(args.table, new String[] { Settings.NameValueTable.NAME },
+                args.where, args.args, null, null, null,
+                "" + (MAX_TRACKED_MUTATIONS + 1) /* limit */);
+        try {
+            int rows = c.getCount();
+            if (rows > MAX_TRACKED_MUTATIONS) {
+                return null;
+            }
+            String[] names = new String[rows];
+            for (int i = 0; c.moveToNext(); i++) {
+                names[i] = c.getString(0);
+                if (names[i] == null) return null;
+            }
+            return names;
+        } finally {
+            c.close();
+        }
     }
 
     @Override
@@ -415,6 +610,7 @@ public class SettingsProvider extends ContentProvider {
             }
         }
 
+        applyPendingJournal(args.table);
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(args.table);
 
@@ -443,24 +639,30 @@ public class SettingsProvider extends ContentProvider {
         }
         checkWritePermissions(args);
         SettingsCache cache = SettingsCache.forTable(args.table);
+        applyPendingJournal(args.table);
 
         sKnownMutationsInFlight.incrementAndGet();
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransaction();
+        mNotifier.beginBatch();
         try {
-            int numValues = values.length;
-            for (int i = 0; i < numValues; i++) {
-                if (db.insert(args.table, null, values[i]) < 0) return 0;
-                SettingsCache.populate(cache, values[i]);
-                if (LOCAL_LOGV) Log.v(TAG, args.table + " <- " + values[i]);
+            db.beginTransaction();
+            try {
+                int numValues = values.length;
+                for (int i = 0; i < numValues; i++) {
+                    if (db.insert(args.table, null, values[i]) < 0) return 0;
+                    SettingsCache.populate(cache, values[i]);
+                    if (LOCAL_LOGV) Log.v(TAG, args.table + " <- " + values[i]);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                sKnownMutationsInFlight.decrementAndGet();
             }
-            db.setTransactionSuccessful();
+
+            sendNotify(uri);
         } finally {
-            db.endTransaction();
-            sKnownMutationsInFlight.decrementAndGet();
+            mNotifier.endBatch();
         }
-
-        sendNotify(uri);
         return values.length;
     }
 
@@ -557,6 +759,16 @@ public class SettingsProvider extends ContentProvider {
             return Uri.withAppendedPath(url, name);
         }
 
+        if (mUseJournal && name != null && SettingsJournal.isJournaledTable(args.table)) {
+            // Write-behind: the journal thread gets it into sqlite.
+            mJournal.append(args.table, name, value);
+            SettingsCache.populate(cache, initialValues);  // before we notify
+            if (LOCAL_LOGV) Log.v(TAG, args.table + " <- " + initialValues + " (journaled)");
+            url = Uri.withAppendedPath(url, name);
+            sendNotify(url);
+            return url;
+        }
+
         sKnownMutationsInFlight.incrementAndGet();
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final long rowId = db.insert(args.table, null, initialValues);
@@ -581,15 +793,37 @@ public class SettingsProvider extends ContentProvider {
         }
         checkWritePermissions(args);
 
+        SettingsCache cache = SettingsCache.forTable(args.table);
+        String[] names = null;
+        int count;
+        applyPendingJournal(args.table);
+
         sKnownMutationsInFlight.incrementAndGet();
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.delete(args.table, args.where, args.args);
-        sKnownMutationsInFlight.decrementAndGet();
+        db.beginTransaction();
+        try {
+            if (cache != null) {
+                names = queryAffectedNames(db, args);
+            }
+            count = db.delete(args.table, args.where, args.args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            sKnownMutationsInFlight.decrementAndGet();
+        }
+
+        if (count > 0 && cache != null) {
+            // before we notify
+            if (names != null && names.length == count) {
+                cache.evictNames(names);
+            } else {
+                SettingsCache.invalidate(args.table);
+                startAsyncCachePopulation();
+            }
+        }
         if (count > 0) {
-            SettingsCache.invalidate(args.table);  // before we notify
             sendNotify(url);
         }
-        startAsyncCachePopulation();
         if (LOCAL_LOGV) Log.v(TAG, args.table + ": " + count + " row(s) deleted");
         return count;
     }
@@ -602,15 +836,36 @@ public class SettingsProvider extends ContentProvider {
         }
         checkWritePermissions(args);
 
+        SettingsCache cache = SettingsCache.forTable(args.table);
+        String[] names = null;
+        int count;
+        applyPendingJournal(args.table);
+
         sKnownMutationsInFlight.incrementAndGet();
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, initialValues, args.where, args.args);
-        sKnownMutationsInFlight.decrementAndGet();
+        db.beginTransaction();
+        try {
+            if (cache != null) {
+                names = queryAffectedNames(db, args);
+            }
+            count = db.update(args.table, initialValues, args.where, args.args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            sKnownMutationsInFlight.decrementAndGet();
+        }
+
+        if (count > 0 && cache != null) {
+            // before we notify
+            if (names == null || names.length != count
+                    || !cache.applyUpdate(names, initialValues)) {
+                SettingsCache.invalidate(args.table);
+                startAsyncCachePopulation();
+            }
+        }
         if (count > 0) {
-            SettingsCache.invalidate(args.table);  // before we notify
             sendNotify(url);
         }
-        startAsyncCachePopulation();
         if (LOCAL_LOGV) Log.v(TAG, args.table + ": " + count + " row(s) <- " + initialValues);
         return count;
     }
@@ -716,128 +971,29 @@ public class SettingsProvider extends ContentProvider {
         return super.openAssetFile(uri, mode);
     }
 
-    /**
-     * In-memory LRU Cache of system and secure settings, along with
-     * associated helper functions to keep cache coherent with the
-     * database.
-     */
-    private static final class SettingsCache extends LruCache<String, Bundle> {
-
-        private final String mCacheName;
-        private boolean mCacheFullyMatchesDisk = false;  // has the whole database slurped.
-
-        public SettingsCache(String name) {
-            super(MAX_CACHE_ENTRIES);
-            mCacheName = name;
-        }
-
-        /**
-         * Is the whole database table slurped into this cache?
-         */
-        public boolean fullyMatchesDisk() {
-            synchronized (this) {
-                return mCacheFullyMatchesDisk;
-            }
-        }
-
-        public void setFullyMatchesDisk(boolean value) {
-            synchronized (this) {
-                mCacheFullyMatchesDisk = value;
-            }
-        }
-
-        @Override
-        protected void entryRemoved(boolean evicted, String key, Bundle oldValue, Bundle newValue) {
-            if (evicted) {
-                mCacheFullyMatchesDisk = false;
-            }
-        }
-
-        /**
-         * Atomic cache population, conditional on size of value and if
-         * we lost a race.
-         *
-         * @returns a Bundle to send back to the client from call(), even
-         *     if we lost the race.
-         */
-        public Bundle putIfAbsent(String key, String value) {
-            Bundle bundle = (value == null) ? NULL_SETTING : Bundle.forPair("value", value);
-            if (value == null || value.length() <= MAX_CACHE_ENTRY_SIZE) {
-                synchronized (this) {
-                    if (get(key) == null) {
-                        put(key, bundle);
-                    }
-                }
-            }
-            return bundle;
-        }
-
-        public static SettingsCache forTable(String tableName) {
-            if ("system".equals(tableName)) {
-                return SettingsProvider.sSystemCache;
-            }
-            if ("secure".equals(tableName)) {
-                return SettingsProvider.sSecureCache;
-            }
-            return null;
-        }
-
-        /**
-         * Populates a key in a given (possibly-null) cache.
-         */
-        public static void populate(SettingsCache cache, ContentValues contentValues) {
-            if (cache == null) {
-                return;
-            }
-            String name = contentValues.getAsString(Settings.NameValueTable.NAME);
-            if (name == null) {
-                Log.w(TAG, "null name populating settings cache.");
-                return;
-            }
-            String value = contentValues.getAsString(Settings.NameValueTable.VALUE);
-            cache.populate(name, value);
-        }
-
-        public void populate(String name, String value) {
-            synchronized (this) {
-                if (value == null || value.length() <= MAX_CACHE_ENTRY_SIZE) {
-                    put(name, Bundle.forPair(Settings.NameValueTable.VALUE, value));
-                } else {
-                    put(name, TOO_LARGE_TO_CACHE_MARKER);
-                }
-            }
-        }
-
-        /**
-         * Used for wiping a whole cache on deletes when we're not
-         * sure what exactly was deleted or changed.
-         */
-        public static void invalidate(String tableName) {
-            SettingsCache cache = SettingsCache.forTable(tableName);
-            if (cache == null) {
-                return;
-            }
-            synchronized (cache) {
-                cache.evictAll();
-                cache.mCacheFullyMatchesDisk = false;
-            }
-        }
+    private Bundle dumpValues() {
+        getContext().enforceCallingOrSelfPermission(android.Manifest.permission.DUMP,
+                "Permission denial: dumping settings provider");
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        dump(pw);
+        pw.flush();
+        Bundle result = new Bundle();
+        result.putString(CALL_EXTRA_DUMP, sw.toString());
+        return result;
+    }
 
-        /**
-         * For suppressing duplicate/redundant settings inserts early,
-         * checking our cache first (but without faulting it in),
-         * before going to sqlite with the mutation.
-         */
-        public static boolean isRedundantSetValue(SettingsCache cache, String name, String value) {
-            if (cache == null) return false;
-            synchronized (cache) {
-                Bundle bundle = cache.get(name);
-                if (bundle == null) return false;
-                String oldValue = bundle.getPairValue();
-                if (oldValue == null && value == null) return true;
-                if ((oldValue == null) != (value == null)) return false;
-                return oldValue.equals(value);
-            }
+    void dump(PrintWriter pw) {
+        pw.println("Settings provider:");
+        sSystemCache.dump(pw);
+        sSecureCache.dump(pw);
+        String upgrade = DatabaseHelper.getLastUpgradeSummary();
+        if (upgrade != null) {
+            pw.print("  "); pw.println(upgrade);
+        }
+        mNotifier.dump(pw);
+        if (mUseJournal) {
+            mJournal.dump(pw);
         }
     }
 }
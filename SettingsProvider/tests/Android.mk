@@ -0,0 +1,39 @@
+# Copyright (C) 2012 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# We only want this apk build for tests.
+LOCAL_MODULE_TAGS := tests
+
+# SettingsProvider runs in the system process, which instrumentation
+# cannot restart, so the classes under test are built into this package
+# and the tests instrument themselves.
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+        ../src/com/android/providers/settings/DatabaseHelper.java \
+        ../src/com/android/providers/settings/SettingsCache.java \
+        ../src/com/android/providers/settings/SettingsJournal.java \
+        ../src/com/android/providers/settings/SettingsNotifier.java \
+        ../src/com/android/providers/settings/SettingsProvider.java
+
+# DatabaseHelper loads its defaults from the provider's resources.
+LOCAL_RESOURCE_DIR := $(LOCAL_PATH)/../res
+LOCAL_AAPT_FLAGS := --custom-package com.android.providers.settings
+
+LOCAL_JAVA_LIBRARIES := android.test.runner
+
+LOCAL_PACKAGE_NAME := SettingsProviderTests
+
+include $(BUILD_PACKAGE)
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Times {@link DatabaseHelper#onCreate} end to end, which is what first
+ * boot and factory reset wait on, with the defaults batched and with each
+ * default inserted as it is read.  The two averages are logged side by
+ * side.
+ */
+@LargeTest
+public class DatabaseHelperBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "DatabaseHelperBenchmarkTest";
+
+    private static final String DATABASE_NAME = "settings_bench.db";
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 10;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testOnCreate() throws Exception {
+        final Context context = getContext();
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            createDatabase(context, false);
+            createDatabase(context, true);
+        }
+
+        long batched = 0;
+        long legacy = 0;
+        for (int i = 0; i < RUNS; i++) {
+            batched += createDatabase(context, false);
+            legacy += createDatabase(context, true);
+        }
+        Log.i(TAG, "DatabaseHelper.onCreate: batched " + (batched / RUNS / 1000)
+                + " us, per-setting " + (legacy / RUNS / 1000) + " us avg over "
+                + RUNS + " runs");
+    }
+
+    private long createDatabase(Context context, boolean legacyDefaults) {
+        context.deleteDatabase(DATABASE_NAME);
+        DatabaseHelper helper = new DatabaseHelper(context, DATABASE_NAME, legacyDefaults);
+        try {
+            long begin = System.nanoTime();
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long elapsed = System.nanoTime() - begin;
+
+            Cursor c = db.rawQuery("SELECT COUNT(*) FROM secure", null);
+            try {
+                assertTrue(c.moveToFirst());
+                assertTrue(c.getInt(0) > 0);
+            } finally {
+                c.close();
+            }
+            return elapsed;
+        } finally {
+            helper.close();
+        }
+    }
+}
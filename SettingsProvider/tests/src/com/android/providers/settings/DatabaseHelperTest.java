@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Checks that batching the default settings in {@link DatabaseHelper#onCreate}
+ * loads exactly what inserting them one at a time did.
+ */
+@MediumTest
+public class DatabaseHelperTest extends AndroidTestCase {
+    private static final String DATABASE_NAME = "settings_test.db";
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBatchedDefaultsMatchPerSettingDefaults() throws Exception {
+        final Context context = getContext();
+        createDatabase(context, false);
+        String batchedSystem = readTable(context, "system");
+        String batchedSecure = readTable(context, "secure");
+        assertTrue(batchedSystem.length() > 0);
+        assertTrue(batchedSecure.length() > 0);
+
+        createDatabase(context, true);
+        assertEquals(batchedSystem, readTable(context, "system"));
+        assertEquals(batchedSecure, readTable(context, "secure"));
+    }
+
+    private void createDatabase(Context context, boolean legacyDefaults) {
+        context.deleteDatabase(DATABASE_NAME);
+        DatabaseHelper helper = new DatabaseHelper(context, DATABASE_NAME, legacyDefaults);
+        try {
+            helper.getWritableDatabase();
+        } finally {
+            helper.close();
+        }
+    }
+
+    private String readTable(Context context, String table) {
+        DatabaseHelper helper = new DatabaseHelper(context, DATABASE_NAME);
+        try {
+            Cursor c = helper.getReadableDatabase().rawQuery(
+                    "SELECT name, value FROM " + table + " ORDER BY name", null);
+            try {
+                StringBuilder sb = new StringBuilder();
+                while (c.moveToNext()) {
+                    sb.append(c.getString(0)).append('=').append(c.getString(1)).append('\n');
+                }
+                return sb.toString();
+            } finally {
+                c.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+}
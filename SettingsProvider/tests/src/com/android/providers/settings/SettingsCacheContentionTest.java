@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.providers.settings;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Microbenchmark comparing the read path of {@link SettingsCache} against
+ * the synchronized LruCache it replaced, with several threads hammering
+ * the cache the way binder threads do during a boot storm.
+ */
+@LargeTest
+public class SettingsCacheContentionTest extends AndroidTestCase {
+    private static final String TAG = "SettingsCacheContentionTest";
+
+    private static final int KEYS = 150;
+    // The entry limit of the old cache.
+    private static final int LRU_ENTRIES = 200;
+    private static final int THREADS = 8;
+    private static final int READS_PER_THREAD = 200000;
+    // One in this many operations is a write.
+    private static final int WRITE_INTERVAL = 1000;
+
+    private String[] mKeys;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mKeys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "setting_" + i;
+        }
+    }
+
+    /** The shape of the old SettingsProvider read path. */
+    private static final class LockedLruCache extends LruCache<String, Bundle> {
+        LockedLruCache() {
+            super(LRU_ENTRIES);
+        }
+
+        Bundle lookup(String key) {
+            synchronized (this) {
+                return get(key);
+            }
+        }
+
+        void populate(String key, String value) {
+            synchronized (this) {
+                put(key, Bundle.forPair("value", value));
+            }
+        }
+    }
+
+    private interface Op {
+        Bundle read(String key);
+        void write(String key, String value);
+    }
+
+    public void testLookupContention() throws Exception {
+        final LockedLruCache lru = new LockedLruCache();
+        final SettingsCache cache = new SettingsCache("bench");
+        for (int i = 0; i < KEYS; i++) {
+            lru.populate(mKeys[i], Integer.toString(i));
+            cache.populate(mKeys[i], Integer.toString(i));
+        }
+
+        // Warm up both paths before timing.
+        long lruNanos = run(new Op() {
+            public Bundle read(String key) { return lru.lookup(key); }
+            public void write(String key, String value) { lru.populate(key, value); }
+        });
+        long cacheNanos = run(new Op() {
+            public Bundle read(String key) { return cache.get(key); }
+            public void write(String key, String value) { cache.populate(key, value); }
+        });
+
+        lruNanos = run(new Op() {
+            public Bundle read(String key) { return lru.lookup(key); }
+            public void write(String key, String value) { lru.populate(key, value); }
+        });
+        cacheNanos = run(new Op() {
+            public Bundle read(String key) { return cache.get(key); }
+            public void write(String key, String value) { cache.populate(key, value); }
+        });
+
+        long ops = (long) THREADS * READS_PER_THREAD;
+        Log.i(TAG, "synchronized LruCache: " + (lruNanos / ops) + " ns/op, "
+                + "SettingsCache: " + (cacheNanos / ops) + " ns/op "
+                + "(" + THREADS + " threads, " + KEYS + " keys)");
+
+        for (int i = 0; i < KEYS; i++) {
+            assertNotNull(cache.get(mKeys[i]));
+        }
+        assertEquals(KEYS, cache.size());
+    }
+
+    private long run(final Op op) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            new Thread("settings-bench-" + t) {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        int k = seed;
+                        for (int i = 0; i < READS_PER_THREAD; i++) {
+                            k = (k + 7) % KEYS;
+                            if (i % WRITE_INTERVAL == 0) {
+                                op.write(mKeys[k], Integer.toString(i));
+                            } else if (op.read(mKeys[k]) == null) {
+                                Log.e(TAG, "missing " + mKeys[k]);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+}
@@ -30,12 +30,12 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
 import android.database.ContentObserver;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
@@ -76,6 +76,7 @@ import com.android.systemui.recent.TaskDescription;
 import com.android.systemui.statusbar.CommandQueue;
 import com.android.systemui.statusbar.NotificationData.Entry;
 import com.android.systemui.statusbar.policy.NotificationRowLayout;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 import com.android.systemui.statusbar.tablet.StatusBarPanel;
 
 import com.android.systemui.R;
@@ -109,6 +110,20 @@ public abstract class BaseStatusBar extends SystemUI implements
     // all notifications
     protected NotificationData mNotificationData = new NotificationData();
     protected NotificationRowLayout mPile;
+    protected NotificationInflater mInflater;
+    protected NotificationPolicyCache mNotificationPolicies;
+    protected SettingsMonitor mSettings;
+
+    // Set while a batch of notification changes from mCommandQueue is applied.
+    private boolean mApplyingNotificationBatch;
+    private boolean mNotificationViewsDirty;
+    private boolean mExpandedViewPosDirty;
+
+    // keep mPile and the notification icons in step with mNotificationData
+    protected final ChildViewReconciler mPileReconciler =
+            new ChildViewReconciler("notification pile");
+    protected final ChildViewReconciler mIconReconciler =
+            new ChildViewReconciler("notification icons");
 
     protected StatusBarNotification mCurrentlyIntrudingNotification;
 
@@ -166,6 +181,14 @@ public abstract class BaseStatusBar extends SystemUI implements
         }
     };
 
+    // added to clear the settings cache when the user changes something
+    private SettingsMonitor.Listener mDirtySettingsListener = new SettingsMonitor.Listener() {
+        public void onSettingChanged(String key) {
+            Notifications.clearCache();
+            mNotificationPolicies.invalidate();
+        }
+    };
+
     private RemoteViews.OnClickHandler mOnClickHandler = new RemoteViews.OnClickHandler() {
         @Override
         public boolean onClickHandler(View view, PendingIntent pendingIntent, Intent fillInIntent) {
@@ -218,11 +241,25 @@ public abstract class BaseStatusBar extends SystemUI implements
         // protect this receiver so nobody but the system can use it
         mContext.registerReceiver(mDevRestartReceiver, filter, "com.bamf.ics.permission.RESTART_SYSTEMUI", null);
 
+        mSettings = SettingsMonitor.getInstance(mContext);
+        mNotificationPolicies = new NotificationPolicyCache(mContext.getContentResolver());
+        mSettings.addListener(mDirtySettingsListener,
+                Settings.System.NOTIFICATIONS_DIRTY, Settings.System.NOTIFICATION_MANAGER);
+
+        mInflater = new NotificationInflater(mContext, new NotificationInflater.Callback() {
+            public void onNotificationsPrepared(ArrayList<IBinder> keys,
+                    ArrayList<StatusBarNotification> notifications) {
+                addPreparedNotifications(keys, notifications);
+            }
+        });
+
         // Connect in to the status bar manager service
         StatusBarIconList iconList = new StatusBarIconList();
         ArrayList<IBinder> notificationKeys = new ArrayList<IBinder>();
         ArrayList<StatusBarNotification> notifications = new ArrayList<StatusBarNotification>();
         mCommandQueue = new CommandQueue(this, iconList);
+        mCommandQueue.setNotificationBatchWindow(
+                mContext.getResources().getInteger(R.integer.config_notificationBatchWindow));
 
         int[] switches = new int[7];
         ArrayList<IBinder> binders = new ArrayList<IBinder>();
@@ -549,13 +586,24 @@ public abstract class BaseStatusBar extends SystemUI implements
     protected void workAroundBadLayerDrawableOpacity(View v) {
     }
 
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        mInflater.onConfigurationChanged();
+    }
+
+    public void addNotification(IBinder key, StatusBarNotification notification) {
+        mInflater.enqueue(key, notification);
+    }
+
+    /**
+     * Shows a notification that mInflater has finished preparing.
+     */
+    protected abstract void addPreparedNotification(IBinder key,
+            StatusBarNotification notification);
+
     protected  boolean inflateViews(NotificationData.Entry entry, ViewGroup parent) {
-        int rowHeight =
-                mContext.getResources().getDimensionPixelSize(R.dimen.notification_row_min_height);
-        int minHeight =
-                mContext.getResources().getDimensionPixelSize(R.dimen.notification_min_height);
-        int maxHeight =
-                mContext.getResources().getDimensionPixelSize(R.dimen.notification_max_height);
+        int minHeight = mInflater.getMinHeight();
+        int maxHeight = mInflater.getMaxHeight();
         StatusBarNotification sbn = entry.notification;
         RemoteViews oneU = sbn.notification.contentView;
         RemoteViews large = sbn.notification.bigContentView;
@@ -563,10 +611,15 @@ public abstract class BaseStatusBar extends SystemUI implements
             return false;
         }
 
-        // create the row view
-        LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(
-                Context.LAYOUT_INFLATER_SERVICE);
-        View row = inflater.inflate(R.layout.status_bar_notification_row, parent, false);
+        // create the row view, reusing a recycled one for the pile
+        View row;
+        if (parent == mPile) {
+            row = mInflater.obtainRow(parent);
+        } else {
+            LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(
+                    Context.LAYOUT_INFLATER_SERVICE);
+            row = inflater.inflate(R.layout.status_bar_notification_row, parent, false);
+        }
 
         // for blaming (see SwipeHelper.setLongPressListener)
         row.setTag(sbn.pkg);
@@ -606,6 +659,9 @@ public abstract class BaseStatusBar extends SystemUI implements
         catch (RuntimeException e) {
             final String ident = sbn.pkg + "/0x" + Integer.toHexString(sbn.id);
             Slog.e(TAG, "couldn't inflate view for notification " + ident, e);
+            if (parent == mPile) {
+                mInflater.recycleRow(row);
+            }
             return false;
         }
 
@@ -740,8 +796,8 @@ public abstract class BaseStatusBar extends SystemUI implements
         // Remove the expanded view.
         ViewGroup rowParent = (ViewGroup)entry.row.getParent();
         if (rowParent != null) rowParent.removeView(entry.row);
-        updateExpansionStates();
-        updateNotificationIcons();
+        mInflater.recycleRow(entry.row);
+        updateNotificationViews();
 
         return entry.notification;
     }
@@ -775,21 +831,12 @@ public abstract class BaseStatusBar extends SystemUI implements
         }
 
      // Add the expanded view and icon.
-        boolean show = true;
-        
         // apply user custom background or hide this notification
-        if(Settings.System.getInt(mContext.getContentResolver(), Settings.System.NOTIFICATION_MANAGER, 0)==1){
-	        Bundle values = Notifications.getValues(mContext.getContentResolver(), entry.notification.pkg);
-	        
-	        if(values!=null){
-	        	show = values.getBoolean(Notifications.NOTIFICATION_ENABLED) &&
-	        			!values.getBoolean(Notifications.NOTIFICATION_HIDE) && 
-	        			!isFiltered(values.getString(Notifications.FILTERS, ""), entry.content);
-	        	
-	        	if(values.getInt(Notifications.BACKGROUND_COLOR)<0){
-	        		entry.content.setBackgroundColor(values.getInt(Notifications.BACKGROUND_COLOR));
-	        	}
-	        }
+        NotificationPolicyCache.Policy policy =
+                mNotificationPolicies.get(entry.notification.pkg);
+        boolean show = policy.enabled && !policy.isFiltered(entry.content);
+        if (policy.backgroundColor != 0) {
+            entry.content.setBackgroundColor(policy.backgroundColor);
         }
         
         if(show){
@@ -798,12 +845,12 @@ public abstract class BaseStatusBar extends SystemUI implements
         	if (DEBUG) {
         		Slog.d(TAG, "addNotificationViews: added at " + pos);
         	}
-        	updateExpansionStates();
-        	updateNotificationIcons();
+        	updateNotificationViews();
 
         	return iconView;
         }else{
         	Log.d(TAG, "User decided to hide this notification");
+        	mInflater.recycleRow(entry.row);
         	removeNotification(key);
             return null;
         }
@@ -819,25 +866,8 @@ public abstract class BaseStatusBar extends SystemUI implements
         //return iconView;
     }
     
-    private boolean isFiltered(String value, View v){
-        
-    	boolean match = false;
-		String[] filters = value.split("\\|");
-		for(String filter: filters){
-			final ArrayList<View> outViews = new ArrayList<View>();
-			v.findViewsWithText(outViews, filter, View.FIND_VIEWS_WITH_TEXT);
-			if(!outViews.isEmpty()){
-				match = true;
-				break;
-			}
-		}
-        
-    	return match;
-    }
-
     protected boolean expandView(NotificationData.Entry entry, boolean expand) {
-        int rowHeight =
-                mContext.getResources().getDimensionPixelSize(R.dimen.notification_row_min_height);
+        int rowHeight = mInflater.getRowMinHeight();
         ViewGroup.LayoutParams lp = entry.row.getLayoutParams();
         if (entry.expandable() && expand) {
             if (DEBUG) Slog.d(TAG, "setting expanded row height to WRAP_CONTENT");
@@ -872,6 +902,90 @@ public abstract class BaseStatusBar extends SystemUI implements
         }
     }
 
+    /**
+     * Re-lays out the rows and icons after notifications were added or
+     * removed.  While a batch is applied this happens once, at the end.
+     */
+    protected void updateNotificationViews() {
+        if (mApplyingNotificationBatch) {
+            mNotificationViewsDirty = true;
+            return;
+        }
+        updateExpansionStates();
+        updateNotificationIcons();
+    }
+
+    /**
+     * updateExpandedViewPos(EXPANDED_LEAVE_ALONE) for a change in the
+     * notifications, deferred to the end of a batch like
+     * {@link #updateNotificationViews}.
+     */
+    protected void updateExpandedViewPosForNotifications() {
+        if (mApplyingNotificationBatch) {
+            mExpandedViewPosDirty = true;
+            return;
+        }
+        updateExpandedViewPos(EXPANDED_LEAVE_ALONE);
+    }
+
+    /**
+     * Shows notifications that mInflater prepared together, laying out the
+     * rows and icons once for all of them.
+     */
+    private void addPreparedNotifications(ArrayList<IBinder> keys,
+            ArrayList<StatusBarNotification> notifications) {
+        if (DEBUG) Slog.d(TAG, "addPreparedNotifications: " + keys.size());
+        mApplyingNotificationBatch = true;
+        try {
+            final int N = keys.size();
+            for (int i = 0; i < N; i++) {
+                addPreparedNotification(keys.get(i), notifications.get(i));
+            }
+        } finally {
+            mApplyingNotificationBatch = false;
+        }
+        applyDeferredNotificationUpdates();
+    }
+
+    /**
+     * Applies a batch of notification changes from CommandQueue.  Adds go
+     * to mInflater and are shown, together, by addPreparedNotifications()
+     * once their rows can be built; updates and removals are applied here.
+     */
+    public void applyNotificationBatch(ArrayList<CommandQueue.NotificationOp> ops) {
+        if (DEBUG) Slog.d(TAG, "applyNotificationBatch: " + ops.size() + " changes");
+        mApplyingNotificationBatch = true;
+        try {
+            for (CommandQueue.NotificationOp op : ops) {
+                switch (op.op) {
+                    case CommandQueue.NotificationOp.ADD:
+                        addNotification(op.key, op.notification);
+                        break;
+                    case CommandQueue.NotificationOp.UPDATE:
+                        updateNotification(op.key, op.notification);
+                        break;
+                    case CommandQueue.NotificationOp.REMOVE:
+                        removeNotification(op.key);
+                        break;
+                }
+            }
+        } finally {
+            mApplyingNotificationBatch = false;
+        }
+        applyDeferredNotificationUpdates();
+    }
+
+    private void applyDeferredNotificationUpdates() {
+        if (mNotificationViewsDirty) {
+            mNotificationViewsDirty = false;
+            updateNotificationViews();
+        }
+        if (mExpandedViewPosDirty) {
+            mExpandedViewPosDirty = false;
+            updateExpandedViewPosForNotifications();
+        }
+    }
+
     protected abstract void haltTicker();
     protected abstract void setAreThereNotifications();
     protected abstract void updateNotificationIcons();
@@ -887,6 +1001,11 @@ public abstract class BaseStatusBar extends SystemUI implements
     public void updateNotification(IBinder key, StatusBarNotification notification) {
         if (DEBUG) Slog.d(TAG, "updateNotification(" + key + " -> " + notification + ")");
 
+        if (mInflater.update(key, notification)) {
+            // Not shown yet; it will be added with this notification instead.
+            return;
+        }
+
         final NotificationData.Entry oldEntry = mNotificationData.findByKey(key);
         if (oldEntry == null) {
             Slog.w(TAG, "updateNotification for unknown key: " + key);
@@ -943,6 +1062,10 @@ public abstract class BaseStatusBar extends SystemUI implements
         if (contentsUnchanged && bigContentsUnchanged && (orderUnchanged || isTopAnyway)) {
             if (DEBUG) Slog.d(TAG, "reusing notification for key: " + key);
             oldEntry.notification = notification;
+            if (!orderUnchanged) {
+                // The entry is still sorted by its old score and when.
+                mNotificationData.reorder(key);
+            }
             try {
                 // Reapply the RemoteViews
                 contentView.reapply(mContext, oldEntry.expanded, mOnClickHandler);
@@ -967,7 +1090,12 @@ public abstract class BaseStatusBar extends SystemUI implements
                     handleNotificationError(key, notification, "Couldn't update icon: " + ic);
                     return;
                 }
-                updateExpansionStates();
+                if (orderUnchanged) {
+                    updateExpansionStates();
+                } else {
+                    // Move the row and icon to the entry's new position.
+                    updateNotificationViews();
+                }
             }
             catch (RuntimeException e) {
                 // It failed to add cleanly.  Log, and remove the view from the panel.
@@ -1002,7 +1130,7 @@ public abstract class BaseStatusBar extends SystemUI implements
 
         // Recalculate the position of the sliding windows and the titles.
         setAreThereNotifications();
-        updateExpandedViewPos(EXPANDED_LEAVE_ALONE);
+        updateExpandedViewPosForNotifications();
 
         // See if we need to update the intruder.
         if (ENABLE_INTRUDERS && oldNotification == mCurrentlyIntrudingNotification) {
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar;
+
+import android.util.Slog;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Brings the children of a ViewGroup in line with an ordered list of views
+ * using as few removes, moves and inserts as it can: children that are
+ * already in the right relative order (a longest increasing subsequence of
+ * their target positions) are left alone.  The whole thing runs in
+ * O(n log n) rather than the O(n^2) of checking every child against the
+ * target list.
+ *
+ * The operations go through the ordinary addView()/removeView() so that
+ * layout transitions still run; they only request layout, so the changes
+ * are laid out together on the next traversal.
+ *
+ * Used for the notification pile and icon area of both status bars.
+ */
+public class ChildViewReconciler {
+    private static final String TAG = "ChildViewReconciler";
+
+    private final String mName;
+
+    private int mReconciles;
+    private int mInserts;
+    private int mMoves;
+    private int mRemoves;
+    private long mLastNanos;
+    private long mMaxNanos;
+    private long mTotalNanos;
+
+    public ChildViewReconciler(String name) {
+        mName = name;
+    }
+
+    /**
+     * Makes 'target' the children of 'parent', in order.  Views inserted for
+     * the first time get 'params' if it is not null.  Views in 'target' that
+     * still belong to some other parent, or are animating out of this one,
+     * are skipped.
+     */
+    public void reconcile(ViewGroup parent, ArrayList<View> target, ViewGroup.LayoutParams params) {
+        final long begin = System.nanoTime();
+        final int N = target.size();
+
+        final HashMap<View, Integer> targetIndex = new HashMap<View, Integer>(N * 2);
+        for (int i = 0; i < N; i++) {
+            targetIndex.put(target.get(i), i);
+        }
+
+        // Drop the children that are no longer wanted.
+        for (int i = parent.getChildCount() - 1; i >= 0; i--) {
+            final View child = parent.getChildAt(i);
+            if (!targetIndex.containsKey(child)) {
+                parent.removeView(child);
+                mRemoves++;
+            }
+        }
+
+        // Keep the longest run of children already in target order; move the rest.
+        final int M = parent.getChildCount();
+        final int[] positions = new int[M];
+        for (int i = 0; i < M; i++) {
+            positions[i] = targetIndex.get(parent.getChildAt(i));
+        }
+        final boolean[] stable = longestIncreasing(positions);
+        final HashSet<View> kept = new HashSet<View>();
+        final HashSet<View> moved = new HashSet<View>();
+        for (int i = M - 1; i >= 0; i--) {
+            final View child = parent.getChildAt(i);
+            if (stable[i]) {
+                kept.add(child);
+            } else {
+                moved.add(child);
+                parent.removeViewAt(i);
+            }
+        }
+
+        // The children are now the stable views in target order, so every
+        // other view can be inserted at its final index.
+        int index = 0;
+        for (int i = 0; i < N; i++) {
+            final View v = target.get(i);
+            if (kept.contains(v)) {
+                index++;
+                continue;
+            }
+            if (moved.contains(v)) {
+                parent.addView(v, index);
+                mMoves++;
+            } else if (v.getParent() != null) {
+                // Still animating out of this parent, or owned by another one.
+                if (v.getParent() != parent) {
+                    Slog.w(TAG, mName + ": view already has another parent: " + v);
+                }
+                continue;
+            } else {
+                if (params != null) {
+                    parent.addView(v, index, params);
+                } else {
+                    parent.addView(v, index);
+                }
+                mInserts++;
+            }
+            index++;
+        }
+
+        final long elapsed = System.nanoTime() - begin;
+        mReconciles++;
+        mLastNanos = elapsed;
+        mTotalNanos += elapsed;
+        if (elapsed > mMaxNanos) mMaxNanos = elapsed;
+    }
+
+    /**
+     * Marks the elements of a longest strictly increasing subsequence of
+     * 'a'.
+     */
+    static boolean[] longestIncreasing(int[] a) {
+        final int M = a.length;
+        final boolean[] result = new boolean[M];
+        if (M == 0) return result;
+        // tails[k] is the index of the smallest tail of an increasing run of
+        // length k + 1; prev[i] links each element to its predecessor.
+        final int[] tails = new int[M];
+        final int[] prev = new int[M];
+        int length = 0;
+        for (int i = 0; i < M; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (a[tails[mid]] < a[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) length++;
+        }
+        for (int i = tails[length - 1]; i >= 0; i = prev[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.print("  "); pw.print(mName); pw.print(" reconciliation: count=");
+        pw.print(mReconciles);
+        pw.print(" last="); pw.print(mLastNanos / 1000); pw.print("us");
+        pw.print(" max="); pw.print(mMaxNanos / 1000); pw.print("us");
+        pw.print(" avg=");
+        pw.print(mReconciles == 0 ? 0 : mTotalNanos / mReconciles / 1000); pw.println("us");
+        pw.print("    inserts="); pw.print(mInserts);
+        pw.print(" moves="); pw.print(mMoves);
+        pw.print(" removes="); pw.println(mRemoves);
+    }
+}
@@ -20,6 +20,9 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
 import com.android.internal.statusbar.IStatusBar;
 import com.android.internal.statusbar.StatusBarIcon;
 import com.android.internal.statusbar.StatusBarIconList;
@@ -66,6 +69,9 @@ public class CommandQueue extends IStatusBar.Stub {
 
     private static final int MSG_SET_NAVIGATION_ICON_HINTS = 14 << MSG_SHIFT;
 
+    private static final int MSG_NOTIFICATION_BATCH     = 15 << MSG_SHIFT;
+    private static final int MSG_NOTIFICATION_BATCH_WINDOW = 16 << MSG_SHIFT;
+
     public static final int FLAG_EXCLUDE_NONE = 0;
     public static final int FLAG_EXCLUDE_SEARCH_PANEL = 1 << 0;
     public static final int FLAG_EXCLUDE_RECENTS_PANEL = 1 << 1;
@@ -82,6 +88,31 @@ public class CommandQueue extends IStatusBar.Stub {
         StatusBarNotification notification;
     }
 
+    /**
+     * One notification change in a batch; see {@link #setNotificationBatchWindow}.
+     */
+    public static final class NotificationOp {
+        public static final int ADD = 1;
+        public static final int UPDATE = 2;
+        public static final int REMOVE = 3;
+
+        public int op;
+        public final IBinder key;
+        public StatusBarNotification notification;
+
+        NotificationOp(int op, IBinder key, StatusBarNotification notification) {
+            this.op = op;
+            this.key = key;
+            this.notification = notification;
+        }
+    }
+
+    // Guarded by mList.  Notification changes waiting for the batch window to
+    // close, folded per key, in arrival order.
+    private long mBatchWindow;
+    private LinkedHashMap<IBinder, NotificationOp> mPendingOps =
+            new LinkedHashMap<IBinder, NotificationOp>();
+
     /**
      * These methods are called back on the main thread.
      */
@@ -106,6 +137,7 @@ public class CommandQueue extends IStatusBar.Stub {
         public void hideSearchPanel();
         public void cancelPreloadRecentApps();
         public void setNavigationIconHints(int hints);
+        public void applyNotificationBatch(ArrayList<NotificationOp> ops);
     }
 
     public CommandQueue(Callbacks callbacks, StatusBarIconList list) {
@@ -129,8 +161,79 @@ public class CommandQueue extends IStatusBar.Stub {
         }
     }
 
+    /**
+     * Sets how long notification changes are collected before they are
+     * handed to {@link Callbacks#applyNotificationBatch} together, with
+     * changes to the same key folded into one.  0, the default, delivers
+     * each change as it arrives through the individual callbacks.
+     */
+    public void setNotificationBatchWindow(long windowMs) {
+        synchronized (mList) {
+            mBatchWindow = windowMs;
+            if (windowMs <= 0) {
+                flushNotificationOpsLocked();
+            }
+        }
+    }
+
+    // Adds a change to the pending batch.  Returns false if batching is off.
+    private boolean queueNotificationOpLocked(int op, IBinder key,
+            StatusBarNotification notification) {
+        if (mBatchWindow <= 0) {
+            return false;
+        }
+        NotificationOp pending = mPendingOps.get(key);
+        if (pending != null) {
+            if (foldNotificationOp(pending, op, notification)) {
+                if (pending.op == 0) {
+                    mPendingOps.remove(key);
+                }
+                return true;
+            }
+            // Can't be merged; deliver what we have first so order is kept.
+            flushNotificationOpsLocked();
+        }
+        if (mPendingOps.isEmpty()) {
+            mHandler.sendEmptyMessageDelayed(MSG_NOTIFICATION_BATCH_WINDOW, mBatchWindow);
+        }
+        mPendingOps.put(key, new NotificationOp(op, key, notification));
+        return true;
+    }
+
+    /**
+     * Merges 'op' into the pending change for the same key.  A result of 0
+     * means the two cancel out.  Returns false if they can't be merged.
+     */
+    static boolean foldNotificationOp(NotificationOp pending, int op,
+            StatusBarNotification notification) {
+        switch (op) {
+            case NotificationOp.UPDATE:
+                if (pending.op == NotificationOp.REMOVE) return false;
+                // add+update is an add of the new version; update+update the last one
+                pending.notification = notification;
+                return true;
+            case NotificationOp.REMOVE:
+                if (pending.op == NotificationOp.REMOVE) return true;
+                // add+remove never needs to be shown; update+remove is a remove
+                pending.op = (pending.op == NotificationOp.ADD) ? 0 : NotificationOp.REMOVE;
+                pending.notification = null;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void flushNotificationOpsLocked() {
+        mHandler.removeMessages(MSG_NOTIFICATION_BATCH_WINDOW);
+        if (!mPendingOps.isEmpty()) {
+            mHandler.obtainMessage(MSG_NOTIFICATION_BATCH, mPendingOps).sendToTarget();
+            mPendingOps = new LinkedHashMap<IBinder, NotificationOp>();
+        }
+    }
+
     public void addNotification(IBinder key, StatusBarNotification notification) {
         synchronized (mList) {
+            if (queueNotificationOpLocked(NotificationOp.ADD, key, notification)) return;
             NotificationQueueEntry ne = new NotificationQueueEntry();
             ne.key = key;
             ne.notification = notification;
@@ -140,6 +243,7 @@ public class CommandQueue extends IStatusBar.Stub {
 
     public void updateNotification(IBinder key, StatusBarNotification notification) {
         synchronized (mList) {
+            if (queueNotificationOpLocked(NotificationOp.UPDATE, key, notification)) return;
             NotificationQueueEntry ne = new NotificationQueueEntry();
             ne.key = key;
             ne.notification = notification;
@@ -149,6 +253,7 @@ public class CommandQueue extends IStatusBar.Stub {
 
     public void removeNotification(IBinder key) {
         synchronized (mList) {
+            if (queueNotificationOpLocked(NotificationOp.REMOVE, key, null)) return;
             mHandler.obtainMessage(MSG_REMOVE_NOTIFICATION, 0, 0, key).sendToTarget();
         }
     }
@@ -315,6 +420,17 @@ public class CommandQueue extends IStatusBar.Stub {
                 case MSG_SET_NAVIGATION_ICON_HINTS:
                     mCallbacks.setNavigationIconHints(msg.arg1);
                     break;
+                case MSG_NOTIFICATION_BATCH_WINDOW:
+                    synchronized (mList) {
+                        flushNotificationOpsLocked();
+                    }
+                    break;
+                case MSG_NOTIFICATION_BATCH: {
+                    final LinkedHashMap<IBinder, NotificationOp> ops =
+                            (LinkedHashMap<IBinder, NotificationOp>) msg.obj;
+                    mCallbacks.applyNotificationBatch(new ArrayList<NotificationOp>(ops.values()));
+                    break;
+                }
             }
         }
     }
@@ -26,6 +26,7 @@ import com.android.systemui.R;
 
 import java.util.Comparator;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * The list of currently displaying notifications.
@@ -40,6 +41,10 @@ public class NotificationData {
         public View expanded; // the inflated RemoteViews
         public ImageView largeIcon;
         protected View expandedLarge;
+        // The score and when this entry was sorted by; updateNotification() may
+        // replace the notification without moving the entry.
+        private int sortScore;
+        private long sortWhen;
         public Entry() {}
         public Entry(IBinder key, StatusBarNotification n, StatusBarIconView ic) {
             this.key = key;
@@ -84,16 +89,16 @@ public class NotificationData {
             return NotificationData.setUserLocked(row, userLocked);
         }
     }
+    // Sorted by mEntryCmp, ascending; mEntriesByKey indexes the same entries.
     private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    private final HashMap<IBinder, Entry> mEntriesByKey = new HashMap<IBinder, Entry>();
     private final Comparator<Entry> mEntryCmp = new Comparator<Entry>() {
         // sort first by score, then by when
         public int compare(Entry a, Entry b) {
-            final StatusBarNotification na = a.notification;
-            final StatusBarNotification nb = b.notification;
-            int d = na.score - nb.score;
-            return (d != 0)
-                ? d
-                : (int)(na.notification.when - nb.notification.when);
+            if (a.sortScore != b.sortScore) {
+                return a.sortScore < b.sortScore ? -1 : 1;
+            }
+            return a.sortWhen < b.sortWhen ? -1 : (a.sortWhen == b.sortWhen ? 0 : 1);
         }
     };
 
@@ -106,24 +111,30 @@ public class NotificationData {
     }
 
     public Entry findByKey(IBinder key) {
-        for (Entry e : mEntries) {
-            if (e.key == key) {
-                return e;
-            }
-        }
-        return null;
+        return mEntriesByKey.get(key);
     }
 
     public int add(Entry entry) {
-        int i;
-        int N = mEntries.size();
-        for (i=0; i<N; i++) {
-            if (mEntryCmp.compare(mEntries.get(i), entry) > 0) {
-                break;
+        final Entry old = mEntriesByKey.put(entry.key, entry);
+        if (old != null) {
+            mEntries.remove(indexOf(old));
+        }
+
+        entry.sortScore = entry.notification.score;
+        entry.sortWhen = entry.notification.notification.when;
+        // Insert after any entries that compare equal, as before.
+        int lo = 0;
+        int hi = mEntries.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mEntryCmp.compare(mEntries.get(mid), entry) > 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
         }
-        mEntries.add(i, entry);
-        return i;
+        mEntries.add(lo, entry);
+        return lo;
     }
 
     public int add(IBinder key, StatusBarNotification notification, View row, View content,
@@ -140,15 +151,56 @@ public class NotificationData {
     }
 
     public Entry remove(IBinder key) {
-        Entry e = findByKey(key);
+        Entry e = mEntriesByKey.remove(key);
         if (e != null) {
-            mEntries.remove(e);
+            mEntries.remove(indexOf(e));
         }
         return e;
     }
 
+    /**
+     * Moves an entry whose score or when changed in place back into order.
+     * Returns its new position, or -1 if the entry is unknown.
+     */
+    public int reorder(IBinder key) {
+        Entry e = mEntriesByKey.get(key);
+        if (e == null) {
+            return -1;
+        }
+        return add(e);
+    }
+
     public void clear() {
         mEntries.clear();
+        mEntriesByKey.clear();
+    }
+
+    /**
+     * Finds the position of an entry in mEntries by binary search.
+     */
+    private int indexOf(Entry entry) {
+        int lo = 0;
+        int hi = mEntries.size() - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int d = mEntryCmp.compare(mEntries.get(mid), entry);
+            if (d < 0) {
+                lo = mid + 1;
+            } else if (d > 0) {
+                hi = mid - 1;
+            } else {
+                // Search the run of equal entries on both sides for this one.
+                for (int i = mid; i >= 0 && mEntryCmp.compare(mEntries.get(i), entry) == 0; i--) {
+                    if (mEntries.get(i) == entry) return i;
+                }
+                final int N = mEntries.size();
+                for (int i = mid + 1; i < N && mEntryCmp.compare(mEntries.get(i), entry) == 0; i++) {
+                    if (mEntries.get(i) == entry) return i;
+                }
+                break;
+            }
+        }
+        throw new IllegalStateException("entry not in sorted list: " + entry.key);
     }
     /**
      * Return whether there are any visible items (i.e. items without an error).
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.util.Slog;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.android.internal.statusbar.StatusBarNotification;
+import com.android.systemui.R;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Staging area between the arrival of a notification and the inflation of
+ * its row on the main thread.
+ *
+ * <ol>
+ * <li>{@link #enqueue} hands a new notification to a background thread, which
+ * creates the Context of the posting package.  That loads the package's
+ * resources, the slowest part of RemoteViews.apply() that does not touch
+ * views, and keeps them cached until the row is built.
+ * <li>The notification then goes back to the main thread.  Notifications
+ * that are ready together are handed over together, so that a burst is
+ * laid out once per group, but no more than MAX_ROWS_PER_DELIVERY at a
+ * time, so that a large burst is spread over several frames instead of
+ * freezing the shade.  Updates and removals that arrive in the meantime
+ * replace or drop the pending notification instead of being inflated.
+ * <li>The row itself comes from a pool of row shells that are inflated while
+ * the main thread is idle and recycled when rows are removed.
+ * </ol>
+ *
+ * All methods must be called on the main thread.
+ */
+public class NotificationInflater {
+    private static final String TAG = "StatusBar.NotificationInflater";
+    private static final boolean DEBUG = false;
+
+    // Shells kept ready; more are kept when rows are recycled.
+    private static final int PREINFLATED_ROWS = 3;
+    private static final int MAX_POOLED_ROWS = 8;
+
+    // Most notifications handed to the callback in one message.
+    private static final int MAX_ROWS_PER_DELIVERY = 8;
+
+    public interface Callback {
+        /**
+         * Called on the main thread with notifications that are ready to
+         * inflate, in the order they were enqueued.
+         */
+        public void onNotificationsPrepared(ArrayList<IBinder> keys,
+                ArrayList<StatusBarNotification> notifications);
+    }
+
+    private static final class Pending {
+        final IBinder key;
+        // Replaced by updates on the main thread; read once by the background thread.
+        volatile StatusBarNotification notification;
+        // Held only to keep the package's resources cached until inflation.
+        Context packageContext;
+
+        Pending(IBinder key, StatusBarNotification notification) {
+            this.key = key;
+            this.notification = notification;
+        }
+    }
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final Handler mHandler;
+    private final Handler mBackgroundHandler;
+    private final HashMap<IBinder, Pending> mPending = new HashMap<IBinder, Pending>();
+
+    // Prepared notifications on their way to the main thread.  Guarded by
+    // mReady, like the two fields after it.
+    private final ArrayList<Pending> mReady = new ArrayList<Pending>();
+    // Notifications the background thread has yet to prepare.
+    private int mPreparing;
+    private boolean mDeliveryQueued;
+
+    private final ArrayList<View> mRowPool = new ArrayList<View>();
+    private ViewGroup mRowParent;
+    private boolean mIdleHandlerQueued;
+    // Bumped by every configuration change; rows remember the one they
+    // were inflated in, so that older rows are not pooled again.
+    private int mGeneration;
+
+    private int mRowMinHeight;
+    private int mMinHeight;
+    private int mMaxHeight;
+
+    private int mEnqueued;
+    private int mCoalesced;
+    private int mCancelled;
+    private int mRowsInflated;
+    private int mRowsReused;
+    private int mDeliveries;
+
+    public NotificationInflater(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+        mHandler = new Handler();
+        HandlerThread thread = new HandlerThread("NotificationInflater",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper());
+        loadDimens();
+    }
+
+    /**
+     * Reloads the row dimensions and drops the pooled rows, which were
+     * inflated for the old configuration.
+     */
+    public void onConfigurationChanged() {
+        loadDimens();
+        mGeneration++;
+        mRowPool.clear();
+        scheduleRowPreinflation();
+    }
+
+    private void loadDimens() {
+        final Resources res = mContext.getResources();
+        mRowMinHeight = res.getDimensionPixelSize(R.dimen.notification_row_min_height);
+        mMinHeight = res.getDimensionPixelSize(R.dimen.notification_min_height);
+        mMaxHeight = res.getDimensionPixelSize(R.dimen.notification_max_height);
+    }
+
+    public int getRowMinHeight() {
+        return mRowMinHeight;
+    }
+
+    public int getMinHeight() {
+        return mMinHeight;
+    }
+
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    /**
+     * Starts preparing a new notification; the callback will be told when it
+     * is ready.
+     */
+    public void enqueue(IBinder key, StatusBarNotification notification) {
+        mEnqueued++;
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            pending.notification = notification;
+            mCoalesced++;
+            return;
+        }
+        final Pending p = new Pending(key, notification);
+        mPending.put(key, p);
+        synchronized (mReady) {
+            mPreparing++;
+        }
+        mBackgroundHandler.post(new Runnable() {
+            public void run() {
+                prepare(p);
+                ready(p);
+            }
+        });
+    }
+
+    /**
+     * Replaces the notification of a pending key.  Returns false if the key
+     * is not pending, in which case the caller updates the existing row.
+     */
+    public boolean update(IBinder key, StatusBarNotification notification) {
+        Pending pending = mPending.get(key);
+        if (pending == null) {
+            return false;
+        }
+        pending.notification = notification;
+        mCoalesced++;
+        return true;
+    }
+
+    /**
+     * Drops a pending notification.  Returns false if the key is not
+     * pending, in which case the caller removes the existing row.
+     */
+    public boolean cancel(IBinder key) {
+        if (mPending.remove(key) == null) {
+            return false;
+        }
+        mCancelled++;
+        return true;
+    }
+
+    // Background thread.
+    private void prepare(Pending p) {
+        final String pkg = p.notification.pkg;
+        try {
+            p.packageContext = mContext.createPackageContext(pkg, Context.CONTEXT_RESTRICTED);
+        } catch (NameNotFoundException e) {
+            // RemoteViews.apply() will report this when it tries the same.
+            if (DEBUG) Slog.d(TAG, "package not found: " + pkg);
+        } catch (RuntimeException e) {
+            Slog.w(TAG, "couldn't prepare notification from " + pkg, e);
+        }
+    }
+
+    // Background thread.  The main thread is woken once nothing else is
+    // being prepared, or once a full delivery is ready.
+    private void ready(Pending p) {
+        synchronized (mReady) {
+            mPreparing--;
+            mReady.add(p);
+            scheduleDeliveryLocked();
+        }
+    }
+
+    private void scheduleDeliveryLocked() {
+        if (!mDeliveryQueued && !mReady.isEmpty()
+                && (mPreparing == 0 || mReady.size() >= MAX_ROWS_PER_DELIVERY)) {
+            mDeliveryQueued = true;
+            mHandler.post(mDeliver);
+        }
+    }
+
+    private final Runnable mDeliver = new Runnable() {
+        public void run() {
+            final ArrayList<Pending> ready;
+            synchronized (mReady) {
+                final int N = Math.min(mReady.size(), MAX_ROWS_PER_DELIVERY);
+                ready = new ArrayList<Pending>(mReady.subList(0, N));
+                mReady.subList(0, N).clear();
+                mDeliveryQueued = false;
+                scheduleDeliveryLocked();
+            }
+            deliver(ready);
+        }
+    };
+
+    private void deliver(ArrayList<Pending> ready) {
+        final ArrayList<IBinder> keys = new ArrayList<IBinder>(ready.size());
+        final ArrayList<StatusBarNotification> notifications =
+                new ArrayList<StatusBarNotification>(ready.size());
+        for (Pending p : ready) {
+            if (mPending.get(p.key) != p) {
+                // Removed while it was being prepared.
+                continue;
+            }
+            mPending.remove(p.key);
+            keys.add(p.key);
+            notifications.add(p.notification);
+        }
+        if (!keys.isEmpty()) {
+            mDeliveries++;
+            mCallback.onNotificationsPrepared(keys, notifications);
+        }
+        for (Pending p : ready) {
+            p.packageContext = null;
+        }
+    }
+
+    /**
+     * Returns an empty row shell for 'parent', from the pool if one is free.
+     */
+    public View obtainRow(ViewGroup parent) {
+        if (parent == mRowParent) {
+            for (int i = mRowPool.size() - 1; i >= 0; i--) {
+                final View row = mRowPool.get(i);
+                // A removed row may still be animating out of the pile.
+                if (row.getParent() == null) {
+                    mRowPool.remove(i);
+                    resetRow(row);
+                    mRowsReused++;
+                    scheduleRowPreinflation();
+                    return row;
+                }
+            }
+        } else if (mRowParent == null) {
+            mRowParent = parent;
+            scheduleRowPreinflation();
+        }
+        return inflateRow(parent);
+    }
+
+    /**
+     * Returns a row that is no longer used by any entry to the pool.  It is
+     * reset when it is reused, since it may still be animating out.  Rows
+     * inflated before the last configuration change are dropped.
+     */
+    public void recycleRow(View row) {
+        if (row == null || mRowPool.size() >= MAX_POOLED_ROWS
+                || row.getTag(R.id.notification_row_pool_tag) != mRowParent
+                || !Integer.valueOf(mGeneration).equals(
+                        row.getTag(R.id.notification_row_generation_tag))) {
+            return;
+        }
+        mRowPool.add(row);
+    }
+
+    private static void resetRow(View row) {
+        ViewGroup adaptive = (ViewGroup) row.findViewById(R.id.adaptive);
+        adaptive.removeAllViews();
+        View content = row.findViewById(R.id.content);
+        content.setOnClickListener(null);
+        content.setBackgroundDrawable(null);
+        View veto = row.findViewById(R.id.veto);
+        veto.setOnClickListener(null);
+        resetGlow(row.findViewById(R.id.top_glow));
+        resetGlow(row.findViewById(R.id.bottom_glow));
+
+        row.setTag(null);
+        row.setTag(R.id.expandable_tag, null);
+        row.setTag(R.id.user_expanded_tag, null);
+        row.setTag(R.id.user_lock_tag, null);
+        row.setAlpha(1f);
+        row.setTranslationX(0f);
+        row.setTranslationY(0f);
+        row.setScaleX(1f);
+        row.setScaleY(1f);
+        row.setVisibility(View.VISIBLE);
+        ViewGroup.LayoutParams lp = row.getLayoutParams();
+        if (lp != null) {
+            lp.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+        }
+    }
+
+    private static void resetGlow(View glow) {
+        if (glow != null) {
+            glow.setAlpha(0f);
+            glow.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private View inflateRow(ViewGroup parent) {
+        LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(
+                Context.LAYOUT_INFLATER_SERVICE);
+        View row = inflater.inflate(R.layout.status_bar_notification_row, parent, false);
+        row.setTag(R.id.notification_row_pool_tag, parent);
+        row.setTag(R.id.notification_row_generation_tag, mGeneration);
+        mRowsInflated++;
+        return row;
+    }
+
+    private void scheduleRowPreinflation() {
+        if (mIdleHandlerQueued || mRowParent == null || mRowPool.size() >= PREINFLATED_ROWS) {
+            return;
+        }
+        mIdleHandlerQueued = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            public boolean queueIdle() {
+                if (mRowPool.size() < PREINFLATED_ROWS) {
+                    mRowPool.add(inflateRow(mRowParent));
+                }
+                // Inflate one shell per idle period.
+                mIdleHandlerQueued = mRowPool.size() < PREINFLATED_ROWS;
+                return mIdleHandlerQueued;
+            }
+        });
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("  NotificationInflater:");
+        pw.print("    pending="); pw.print(mPending.size());
+        pw.print(" enqueued="); pw.print(mEnqueued);
+        pw.print(" coalesced="); pw.print(mCoalesced);
+        pw.print(" cancelled="); pw.print(mCancelled);
+        pw.print(" deliveries="); pw.println(mDeliveries);
+        pw.print("    pooledRows="); pw.print(mRowPool.size());
+        pw.print(" rowsInflated="); pw.print(mRowsInflated);
+        pw.print(" rowsReused="); pw.println(mRowsReused);
+    }
+}
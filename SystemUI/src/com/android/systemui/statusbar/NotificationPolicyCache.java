@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar;
+
+import android.app.Notification.Notifications;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The user's per-package notification customisations (hide, filter,
+ * background colour), read from Notifications once per package and kept
+ * until {@link #invalidate} is called when the settings change.
+ *
+ * Only used from the main thread.
+ */
+public class NotificationPolicyCache {
+
+    /**
+     * What to do with the notifications of one package.
+     */
+    public static final class Policy {
+        /** Whether notifications are shown at all, before filtering. */
+        public final boolean enabled;
+        /** Background colour for the row, or 0 to leave it alone. */
+        public final int backgroundColor;
+        // All of the package's filters as one case-insensitive pattern, or null.
+        private final Pattern mFilter;
+
+        Policy(boolean enabled, int backgroundColor, Pattern filter) {
+            this.enabled = enabled;
+            this.backgroundColor = backgroundColor;
+            mFilter = filter;
+        }
+
+        /**
+         * Returns whether any filter appears in the text of 'content', as
+         * View.findViewsWithText() would have found it.
+         */
+        public boolean isFiltered(View content) {
+            if (mFilter == null) {
+                return false;
+            }
+            StringBuilder text = new StringBuilder();
+            appendText(content, text);
+            return mFilter.matcher(text).find();
+        }
+    }
+
+    private static final Policy DEFAULT_POLICY = new Policy(true, 0, null);
+
+    private final ContentResolver mResolver;
+    private final HashMap<String, Policy> mPolicies = new HashMap<String, Policy>();
+    // Cached NOTIFICATION_MANAGER switch; null until read.
+    private Boolean mEnabled;
+
+    private int mHits;
+    private int mMisses;
+    private int mInvalidations;
+
+    public NotificationPolicyCache(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the policy for 'pkg', reading it on first use.
+     */
+    public Policy get(String pkg) {
+        if (mEnabled == null) {
+            mEnabled = Settings.System.getInt(mResolver,
+                    Settings.System.NOTIFICATION_MANAGER, 0) == 1;
+        }
+        if (!mEnabled) {
+            return DEFAULT_POLICY;
+        }
+
+        Policy policy = mPolicies.get(pkg);
+        if (policy != null) {
+            mHits++;
+            return policy;
+        }
+        mMisses++;
+        policy = load(pkg);
+        mPolicies.put(pkg, policy);
+        return policy;
+    }
+
+    private Policy load(String pkg) {
+        Bundle values = Notifications.getValues(mResolver, pkg);
+        if (values == null) {
+            return DEFAULT_POLICY;
+        }
+        final boolean enabled = values.getBoolean(Notifications.NOTIFICATION_ENABLED)
+                && !values.getBoolean(Notifications.NOTIFICATION_HIDE);
+        final int color = values.getInt(Notifications.BACKGROUND_COLOR);
+        return new Policy(enabled, color < 0 ? color : 0,
+                compileFilters(values.getString(Notifications.FILTERS, "")));
+    }
+
+    /**
+     * Turns a '|' separated list of plain strings into one pattern that
+     * matches any of them, ignoring case.
+     */
+    static Pattern compileFilters(String filters) {
+        if (TextUtils.isEmpty(filters)) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String filter : TextUtils.split(filters, "\\|")) {
+            // findViewsWithText() never matches an empty string.
+            if (filter.length() == 0) continue;
+            if (regex.length() > 0) regex.append('|');
+            regex.append(Pattern.quote(filter));
+        }
+        if (regex.length() == 0) {
+            return null;
+        }
+        return Pattern.compile(regex.toString(),
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    // One pass over the same views findViewsWithText() looks at: every
+    // TextView reachable through visible children.  Each text is kept on
+    // its own line so that a filter can't match across two of them.
+    private static void appendText(View v, StringBuilder out) {
+        if (v instanceof TextView) {
+            CharSequence text = ((TextView) v).getText();
+            if (!TextUtils.isEmpty(text)) {
+                out.append(text).append('\n');
+            }
+        }
+        if (v instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) v;
+            final int N = group.getChildCount();
+            for (int i = 0; i < N; i++) {
+                View child = group.getChildAt(i);
+                if (child.getVisibility() == View.VISIBLE) {
+                    appendText(child, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets everything; called when the notification settings change.
+     */
+    public void invalidate() {
+        mPolicies.clear();
+        mEnabled = null;
+        mInvalidations++;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.print("  NotificationPolicyCache: packages="); pw.print(mPolicies.size());
+        pw.print(" enabled="); pw.print(mEnabled);
+        pw.print(" hits="); pw.print(mHits);
+        pw.print(" misses="); pw.print(mMisses);
+        pw.print(" invalidations="); pw.println(mInvalidations);
+    }
+}
@@ -17,18 +17,17 @@
 package com.android.systemui.statusbar.phone;
 
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.ContentObserver;
-import android.os.Handler;
 import android.provider.Settings;
 import android.provider.Telephony;
 import android.util.AttributeSet;
 import android.util.Slog;
 import android.widget.TextView;
 
+import com.android.systemui.statusbar.policy.SettingsMonitor;
+
 /**
  * This widget display an analogic clock with two hands for hours and
  * minutes.
@@ -65,7 +64,7 @@ public class CarrierLabel extends TextView {
             filter.addAction(Telephony.Intents.SPN_STRINGS_UPDATED_ACTION);
             getContext().registerReceiver(mIntentReceiver, filter, null, getHandler());
             if (mSettingsObserver == null) {
-                mSettingsObserver = new SettingsObserver(getHandler());
+                mSettingsObserver = new SettingsObserver();
                 mSettingsObserver.observe();
             }
         }
@@ -126,35 +125,29 @@ public class CarrierLabel extends TextView {
         }
     }
 
-    class SettingsObserver extends ContentObserver {
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
+    class SettingsObserver implements SettingsMonitor.Listener {
+        private final SettingsMonitor mSettings = SettingsMonitor.getInstance(mContext);
 
         void observe() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(Settings.System.getUriFor(
-            		Settings.System.CUSTOM_CARRIER_LABEL), false, this);
-            resolver.registerContentObserver(Settings.System.getUriFor(
-            		Settings.System.USE_CUSTOM_CARRIER_LABEL), false, this);
+            mSettings.addListener(this, Settings.System.CUSTOM_CARRIER_LABEL,
+                    Settings.System.USE_CUSTOM_CARRIER_LABEL);
             update();
         }
 
         public void stop() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.unregisterContentObserver(this);
+            mSettings.removeListener(this);
         }
 
         @Override
-        public void onChange(boolean selfChange) {
+        public void onSettingChanged(String key) {
             update();
         }
 
         public void update() {
-            mUseCustomString = Settings.System.getInt(mContext.getContentResolver(),
+            mUseCustomString = mSettings.getInt(
             		Settings.System.USE_CUSTOM_CARRIER_LABEL,0)==1;
             if(mUseCustomString){
-            	 String temp = Settings.System.getString(mContext.getContentResolver(), 
+            	 String temp = mSettings.getString(
             			Settings.System.CUSTOM_CARRIER_LABEL);
             	 if(temp!=null){
             		 setText(temp);
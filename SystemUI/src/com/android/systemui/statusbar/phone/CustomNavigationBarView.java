@@ -19,13 +19,10 @@ package com.android.systemui.statusbar.phone;
 import android.app.Activity;
 import android.app.KeyguardManager;
 import android.app.StatusBarManager;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.ContentObserver;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.provider.Settings;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -42,6 +39,7 @@ import android.widget.LinearLayout;
 
 import com.android.systemui.R;
 import com.android.systemui.statusbar.policy.CustomKeyButtonView;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 
 public class CustomNavigationBarView extends NavigationBarView {
     final static boolean DEBUG = false;
@@ -82,7 +80,7 @@ public class CustomNavigationBarView extends NavigationBarView {
 	private boolean mArrows = false;
 	
 	//for changes to the layout
-    SettingsObserver mSettingsObserver = new SettingsObserver(new Handler());
+    private final SettingsMonitor mSettings;
 
     public ImageView getLeftMenuButton() {
         return (ImageView)mCurrentView.findViewById(R.id.menu_left);
@@ -98,7 +96,8 @@ public class CustomNavigationBarView extends NavigationBarView {
         final Resources res = getResources();
         mMenuWidth = res.getDimensionPixelSize(R.dimen.navigation_menu_key_width);        
         mContext = context;
-        mMenuMode = Settings.System.getInt(context.getContentResolver(), Settings.System.NAVBAR_MENU_MODE,MENU_DEFAULT);        
+        mSettings = SettingsMonitor.getInstance(context);
+        mMenuMode = mSettings.getInt(Settings.System.NAVBAR_MENU_MODE,MENU_DEFAULT);        
         mMenuLeftIcon = res.getDrawable(R.drawable.ic_sysbar_menu);
         mMenuLeftLandIcon = res.getDrawable(R.drawable.ic_sysbar_menu_land);
         mMenuLeftAltIcon = res.getDrawable(R.drawable.ic_sysbar_left_arrow);
@@ -108,33 +107,35 @@ public class CustomNavigationBarView extends NavigationBarView {
         mMenuRightLandIcon = res.getDrawable(R.drawable.ic_sysbar_menu_land);
         mMenuRightAltIcon = res.getDrawable(R.drawable.ic_sysbar_right_arrow);
         mMenuRightAltLandIcon = res.getDrawable(R.drawable.ic_sysbar_right_arrow_land);
-        
-        mSettingsObserver.observe();
     }
     
-    class SettingsObserver extends ContentObserver {
-    	
-    	ContentResolver resolver;
-    	
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
-        
-        void observe() {
-        	resolver = mContext.getContentResolver();
-		    
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.NAVBAR_MENU_MODE), false, this);
-             
+    private final SettingsObserver mSettingsObserver = new SettingsObserver();
+    
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mSettings.addListener(mSettingsObserver, Settings.System.NAVBAR_MENU_MODE);
+        // it may have changed while this view was not watching
+        if (mMenuMode != mSettings.getInt(Settings.System.NAVBAR_MENU_MODE, MENU_DEFAULT)) {
+            mSettingsObserver.update();
         }
+    }
+    
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mSettings.removeListener(mSettingsObserver);
+    }
+    
+    class SettingsObserver implements SettingsMonitor.Listener {
         
         @Override
-        public void onChange(boolean selfChange) {        	
+        public void onSettingChanged(String key) {
             update();
         }
         
         public void update(){  
-        	mMenuMode = Settings.System.getInt(mContext.getContentResolver(), Settings.System.NAVBAR_MENU_MODE,MENU_DEFAULT);        	
+        	mMenuMode = mSettings.getInt(Settings.System.NAVBAR_MENU_MODE,MENU_DEFAULT);        	
         	for(int i = 0;i<mRotatedViews.length;i++){
 				configureMenuKeys(mRotatedViews[i].findViewById(R.id.nav_buttons));        		
 			}  
@@ -167,7 +168,7 @@ public class CustomNavigationBarView extends NavigationBarView {
     	final int padding = landscape ? getResources().getDimensionPixelSize(R.dimen.navigation_key_padding_land) 
     			: getResources().getDimensionPixelSize(R.dimen.navigation_key_padding);
     	
-    	String[] temp = Settings.System.getString(mContext.getContentResolver(),
+    	String[] temp = mSettings.getString(
     			Settings.System.NAVBAR_KEY_ORDER,KEY_BACK+" "+KEY_HOME+" "+KEY_RECENT).split(" ");
     	String[] keys = new String[temp.length];
     	if(landscape && !phablet){
@@ -508,7 +509,7 @@ public class CustomNavigationBarView extends NavigationBarView {
 	@Override
 	protected void dispatchDraw(Canvas canvas){	      
 
-		if(Settings.System.getInt(mContext.getContentResolver(), Settings.System.NAVBAR_FLIP_OVER,0)==1){	         
+		if(mSettings.getInt(Settings.System.NAVBAR_FLIP_OVER,0)==1){	         
 	         canvas.rotate(180,getWidth() / 2, getHeight() / 2);	         
 	    }
 		canvas.save();
@@ -519,7 +520,7 @@ public class CustomNavigationBarView extends NavigationBarView {
 	
 	@Override
     public boolean dispatchTouchEvent(MotionEvent event) {
-		if(Settings.System.getInt(mContext.getContentResolver(), Settings.System.NAVBAR_FLIP_OVER,0)==1){        
+		if(mSettings.getInt(Settings.System.NAVBAR_FLIP_OVER,0)==1){        
 			event.setLocation(getWidth() - event.getX(), getHeight() - event.getY());
 		}
         return super.dispatchTouchEvent(event);
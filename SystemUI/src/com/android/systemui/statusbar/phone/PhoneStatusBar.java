@@ -30,19 +30,16 @@ import android.app.ActivityManagerNative;
 import android.app.Dialog;
 import android.app.KeyguardManager;
 import android.app.Notification;
-import android.app.Notification.Notifications;
 import android.app.PendingIntent;
 import android.app.StatusBarManager;
 import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.database.ContentObserver;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.PixelFormat;
@@ -106,6 +103,7 @@ import com.android.systemui.statusbar.policy.LocationController;
 import com.android.systemui.statusbar.policy.NetworkController;
 import com.android.systemui.statusbar.policy.NotificationRowLayout;
 import com.android.systemui.statusbar.policy.OnSizeChangedListener;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 
 public class PhoneStatusBar extends BaseStatusBar {
     static final String TAG = "PhoneStatusBar";
@@ -254,8 +252,21 @@ public class PhoneStatusBar extends BaseStatusBar {
     int[] mAbsPos = new int[2];
     Runnable mPostCollapseCleanup = null;
 
-    //for changes to the layout
-    SettingsObserver mSettingsObserver = new SettingsObserver(mHandler);
+    // settings handled by mSettingsListener; any not named there change
+    // the layout of the navigation bar
+    private static final String[] OBSERVED_SETTINGS = {
+        Settings.System.QUICK_SETTINGS,
+        Settings.System.NAVBAR_BUTTON_COLOR,
+        Settings.System.SHOW_STATUSBAR_CLOCK,
+        Settings.System.CENTER_STATUSBAR_CLOCK,
+        Settings.System.BATTERY_TEXT_SIZE,
+        Settings.System.SHOW_NAVBAR_SEARCH,
+        Settings.System.SHOW_NAVBAR_REFLECTION,
+        Settings.System.NAVBAR_EASTER_EGG,
+        Settings.System.NAVBAR_KEY_ORDER,
+        Settings.System.LONG_ACTION_HOME,
+        Settings.System.NAVBAR_FLIP_OVER,
+    };
 
     private AnimatorSet mLightsOutAnimation;
     private AnimatorSet mLightsOnAnimation;
@@ -505,9 +516,6 @@ public class PhoneStatusBar extends BaseStatusBar {
         mBatteryController = new BatteryController(mContext);
                 
         // setup the battery view
-        mContext.getContentResolver().registerContentObserver(
-                Settings.System.getUriFor(Settings.System.BATTERY_TEXT_SIZE), 
-                false, mBatteryTextObserver);
         setupBatteryView();
         
 
@@ -542,16 +550,11 @@ public class PhoneStatusBar extends BaseStatusBar {
         context.registerReceiver(mBroadcastReceiver, filter);
 
         // Added to handle Settings change on NavBar settings
-        mSettingsObserver.observe();
+        mSettings.addListener(mSettingsListener, OBSERVED_SETTINGS);
         setNavbarButtonColor();
         setNavbarReflections();            
         updateClock();
 
-        // added to clear the settings cache when the user changes something
-        mContext.getContentResolver().registerContentObserver(
-                Settings.System.getUriFor(Settings.System.NOTIFICATIONS_DIRTY), 
-                false, mDirtySettingsObserver);
-
         return mStatusBarView;
     }
     
@@ -570,65 +573,25 @@ public class PhoneStatusBar extends BaseStatusBar {
                 (TextView)mBattery.findViewById(R.id.battery_text));
     }
     
-    private ContentObserver mBatteryTextObserver = new ContentObserver(mHandler){   	
-    	@Override
-        public void onChange(boolean selfChange) {        	
-    		setupBatteryView();
-        }
-    };
-    
-    private ContentObserver mDirtySettingsObserver = new ContentObserver(mHandler){   	
-    	@Override
-        public void onChange(boolean selfChange) {        	
-    		Notifications.clearCache();
+    private final SettingsMonitor.Listener mSettingsListener = new SettingsMonitor.Listener() {
+        public void onSettingChanged(String key) {
+            if (Settings.System.QUICK_SETTINGS.equals(key)) {
+                reloadQuickSettings();
+            } else if (Settings.System.NAVBAR_BUTTON_COLOR.equals(key)) {
+                setNavbarButtonColor();
+            } else if (Settings.System.SHOW_STATUSBAR_CLOCK.equals(key)
+                    || Settings.System.CENTER_STATUSBAR_CLOCK.equals(key)) {
+                updateClock();
+            } else if (Settings.System.BATTERY_TEXT_SIZE.equals(key)) {
+                setupBatteryView();
+            } else {
+                // the navigation bar may be rebuilt, which loses its colour and images
+                redrawNavigationBar();
+                setNavbarButtonColor();
+                setNavbarReflections();
+            }
         }
     };
-
-    class SettingsObserver extends ContentObserver {
-    	
-    	ContentResolver resolver;
-    	
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
-        
-        void observe() {
-        	resolver = mContext.getContentResolver();
-		    resolver.registerContentObserver(
-            	Settings.System.getUriFor(Settings.System.SHOW_NAVBAR_SEARCH), false, this);
-		    resolver.registerContentObserver(
-	            	Settings.System.getUriFor(Settings.System.SHOW_NAVBAR_REFLECTION), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.QUICK_SETTINGS), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.NAVBAR_BUTTON_COLOR), false, this);            
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.SHOW_STATUSBAR_CLOCK), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.CENTER_STATUSBAR_CLOCK), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.NAVBAR_EASTER_EGG), false, this); 
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.NAVBAR_KEY_ORDER), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.LONG_ACTION_HOME), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.NAVBAR_FLIP_OVER), false, this);
-        }
-        
-        @Override
-        public void onChange(boolean selfChange) {        	
-            update();
-        }
-        
-        public void update(){
-        	redrawNavigationBar();
-            setNavbarButtonColor();
-            setNavbarReflections();            
-            reloadQuickSettings();
-            updateClock();
-        }
-    }
     /**
      * Added so we can redraw the navigation bar during runtime
      * 
@@ -790,7 +753,7 @@ public class PhoneStatusBar extends BaseStatusBar {
         //mNavigationBarView.getRecentsButton().setOnTouchListener(mRecentsPanel);
         mNavigationBarView.setRecentButtonOnTouchListener(mRecentsPanel);
         mNavigationBarView.setRecentButtonOnClickListener(mRecentsClickListener);
-        if(CustomKeyButtonView.ACTION_DEFAULT.equals(Settings.System.getString(mContext.getContentResolver(),
+        if(CustomKeyButtonView.ACTION_DEFAULT.equals(mSettings.getString(
 						Settings.System.LONG_ACTION_HOME, CustomKeyButtonView.ACTION_DEFAULT)))
         	mNavigationBarView.getHomeButton().setOnTouchListener(mHomeSearchActionListener);
         else
@@ -827,8 +790,8 @@ public class PhoneStatusBar extends BaseStatusBar {
     
     private void setNavbarReflections(){
     	if(mNavigationBarView != null){
-    		mNavigationBarView.setButtonImages(Settings.System.getInt(mContext.getContentResolver(), 
-    			Settings.System.SHOW_NAVBAR_REFLECTION, 0) == 1);
+    		mNavigationBarView.setButtonImages(
+    		        mSettings.getInt(Settings.System.SHOW_NAVBAR_REFLECTION, 0) == 1);
     	}
     }
     
@@ -839,9 +802,9 @@ public class PhoneStatusBar extends BaseStatusBar {
         boolean showReflect = false;
         if(mNavigationBarView != null){
             hasSearch = (mNavigationBarView.findViewById(R.id.search) != null);            
-            showSearch = Settings.System.getInt(mContext.getContentResolver(), Settings.System.SHOW_NAVBAR_SEARCH, 0) == 1;
+            showSearch = mSettings.getInt(Settings.System.SHOW_NAVBAR_SEARCH, 0) == 1;
             hasReflect = mNavigationBarView.mHasReflections;
-            showReflect = Settings.System.getInt(mContext.getContentResolver(), Settings.System.SHOW_NAVBAR_REFLECTION, 0) == 1;
+            showReflect = mSettings.getInt(Settings.System.SHOW_NAVBAR_REFLECTION, 0) == 1;
         }        
         return ((hasSearch != showSearch)||(hasReflect != showReflect));
     }
@@ -931,7 +894,8 @@ public class PhoneStatusBar extends BaseStatusBar {
         mStatusIcons.removeViewAt(viewIndex);
     }
 
-    public void addNotification(IBinder key, StatusBarNotification notification) {
+    @Override
+    protected void addPreparedNotification(IBinder key, StatusBarNotification notification) {
         /* if (DEBUG) */ Slog.d(TAG, "addNotification score=" + notification.score);
         StatusBarIconView iconView = addNotificationViews(key, notification);
         if (iconView == null) return;
@@ -999,10 +963,11 @@ public class PhoneStatusBar extends BaseStatusBar {
 
         // Recalculate the position of the sliding windows and the titles.
         setAreThereNotifications();
-        updateExpandedViewPos(EXPANDED_LEAVE_ALONE);
+        updateExpandedViewPosForNotifications();
     }
 
     public void removeNotification(IBinder key) {
+        if (mInflater.cancel(key)) return;
         StatusBarNotification old = removeNotificationViews(key);
         if (SPEW) Slog.d(TAG, "removeNotification key=" + key + " old=" + old);
 
@@ -1011,7 +976,7 @@ public class PhoneStatusBar extends BaseStatusBar {
             mTicker.removeEntry(old);
 
             // Recalculate the position of the sliding windows and the titles.
-            updateExpandedViewPos(EXPANDED_LEAVE_ALONE);
+            updateExpandedViewPosForNotifications();
 
             if (ENABLE_INTRUDERS && old == mCurrentlyIntrudingNotification) {
                 mHandler.sendEmptyMessage(MSG_HIDE_INTRUDER);
@@ -1027,6 +992,7 @@ public class PhoneStatusBar extends BaseStatusBar {
 
     @Override
     protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
         updateRecentsPanel();
         updateShowSearchHoldoff();
     }
@@ -1052,24 +1018,7 @@ public class PhoneStatusBar extends BaseStatusBar {
             }
         }
 
-        ArrayList<View> toRemove = new ArrayList<View>();
-        for (int i=0; i<mPile.getChildCount(); i++) {
-            View child = mPile.getChildAt(i);
-            if (!toShow.contains(child)) {
-                toRemove.add(child);
-            }
-        }
-
-        for (View remove : toRemove) {
-            mPile.removeView(remove);
-        }
-
-        for (int i=0; i<toShow.size(); i++) {
-            View v = toShow.get(i);
-            if (v.getParent() == null) {
-                mPile.addView(v, i);
-            }
-        }
+        mPileReconciler.reconcile(mPile, toShow, null);
 
         mSettingsButton.setEnabled(isDeviceProvisioned());
     }
@@ -1095,7 +1044,6 @@ public class PhoneStatusBar extends BaseStatusBar {
         // no sense in always reloading these
         if(mQuickSettings.isDirty()){
             Log.d(TAG, "QuickSettings was dirty so it will reload");
-            mQuickSettings.release();
             mQuickSettings.loadSettings();
         }
     }
@@ -1133,24 +1081,7 @@ public class PhoneStatusBar extends BaseStatusBar {
             }
         }
 
-        ArrayList<View> toRemove = new ArrayList<View>();
-        for (int i=0; i<mNotificationIcons.getChildCount(); i++) {
-            View child = mNotificationIcons.getChildAt(i);
-            if (!toShow.contains(child)) {
-                toRemove.add(child);
-            }
-        }
-
-        for (View remove : toRemove) {
-            mNotificationIcons.removeView(remove);
-        }
-
-        for (int i=0; i<toShow.size(); i++) {
-            View v = toShow.get(i);
-            if (v.getParent() == null) {
-                mNotificationIcons.addView(v, i, params);
-            }
-        }
+        mIconReconciler.reconcile(mNotificationIcons, toShow, params);
     }
 
     protected void updateCarrierLabelVisibility(boolean force) {
@@ -1260,8 +1191,8 @@ public class PhoneStatusBar extends BaseStatusBar {
     	View clock = mStatusBarView.findViewById(R.id.clock);
     	View clock2 = mStatusBarView.findViewById(R.id.clock2);
     	
-        boolean centerClock = Settings.System.getInt(mContext.getContentResolver(), Settings.System.CENTER_STATUSBAR_CLOCK, 0) ==1;        
-        boolean visible = Settings.System.getInt(mContext.getContentResolver(), Settings.System.SHOW_STATUSBAR_CLOCK, 1) ==1;
+        boolean centerClock = mSettings.getInt(Settings.System.CENTER_STATUSBAR_CLOCK, 0) ==1;        
+        boolean visible = mSettings.getInt(Settings.System.SHOW_STATUSBAR_CLOCK, 1) ==1;
         // make sure we always disable if the user/app/system requests it
         boolean disabled = ((mDisabled & StatusBarManager.DISABLE_CLOCK) != 0);
         
@@ -2285,6 +2216,14 @@ public class PhoneStatusBar extends BaseStatusBar {
                     + " mViewDelta=" + mViewDelta);
             pw.println("  mDisplayMetrics=" + mDisplayMetrics);
             pw.println("  mPile: " + viewInfo(mPile));
+            mPileReconciler.dump(pw);
+            mIconReconciler.dump(pw);
+            mInflater.dump(pw);
+            mNotificationPolicies.dump(pw);
+            mSettings.dump(pw);
+            if (mQuickSettings != null) {
+                mQuickSettings.dump(pw);
+            }
             pw.println("  mCloseView: " + viewInfo(mCloseView));
             pw.println("  mTickerView: " + viewInfo(mTickerView));
             pw.println("  mScrollView: " + viewInfo(mScrollView)
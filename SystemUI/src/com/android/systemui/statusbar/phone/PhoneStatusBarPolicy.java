@@ -19,11 +19,9 @@ package com.android.systemui.statusbar.phone;
 import android.app.StatusBarManager;
 import android.bluetooth.BluetoothAdapter;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.ContentObserver;
 import android.location.LocationManager;
 import android.media.AudioManager;
 import android.net.ConnectivityManager;
@@ -47,6 +45,7 @@ import com.android.internal.telephony.cdma.EriInfo;
 import com.android.internal.telephony.cdma.TtyIntent;
 import com.android.server.am.BatteryStatsService;
 import com.android.systemui.R;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 
 /**
  * This class contains all of the policy about which icons are installed in the status
@@ -107,28 +106,20 @@ public class PhoneStatusBarPolicy {
 
     // state of inet connection - 0 not connected, 100 connected
     private int mInetCondition = 0;
-    SettingsObserver mSettingsObserver = new SettingsObserver(mHandler);
+    private final SettingsMonitor mSettings;
+    SettingsObserver mSettingsObserver = new SettingsObserver();
 
     // sync state
     // If sync is active the SyncActive icon is displayed. If sync is not active but
     // sync is failing the SyncFailing icon is displayed. Otherwise neither are displayed.
-    class SettingsObserver extends ContentObserver {
-    	
-    	ContentResolver resolver;
-    	
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
+    class SettingsObserver implements SettingsMonitor.Listener {
         
         void observe() {
-        	resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.SHOW_STATUSBAR_ALARM), false, this);           
-            
+            mSettings.addListener(this, Settings.System.SHOW_STATUSBAR_ALARM);
         }
         
         @Override
-        public void onChange(boolean selfChange) {
+        public void onSettingChanged(String key) {
             update();
         }
         
@@ -165,6 +156,7 @@ public class PhoneStatusBarPolicy {
 
     public PhoneStatusBarPolicy(Context context) {
         mContext = context;
+        mSettings = SettingsMonitor.getInstance(context);
         mService = (StatusBarManager)context.getSystemService(Context.STATUS_BAR_SERVICE);
 
         // listen for broadcasts
@@ -229,7 +221,7 @@ public class PhoneStatusBarPolicy {
         		
         	
     	}
-		boolean showAlarm = Settings.System.getInt(mContext.getContentResolver(), Settings.System.SHOW_STATUSBAR_ALARM,1) == 1;
+		boolean showAlarm = mSettings.getInt(Settings.System.SHOW_STATUSBAR_ALARM,1) == 1;
         mService.setIconVisibility("alarm_clock", alarmSet && showAlarm);
     }
 
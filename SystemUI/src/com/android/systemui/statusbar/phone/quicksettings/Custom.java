@@ -2,24 +2,22 @@ package com.android.systemui.statusbar.phone.quicksettings;
 
 import android.app.Activity;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.AssetFileDescriptor;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.Handler;
 import android.provider.Settings;
 import android.view.View;
 
 import com.android.systemui.statusbar.phone.StatusBarPreference;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -33,8 +31,7 @@ public class Custom extends StatusBarPreference
 	
 	private String mCustomURI = null;
 	private PackageManager pm;
-	private Handler mHandler;
-    private SettingsObserver mSettingsObserver;
+	private SettingsMonitor mSettings;
 	
     @Override
 	public void onClick(View v) {
@@ -58,32 +55,11 @@ public class Custom extends StatusBarPreference
 				"com.bamf.settings.activities.QuickSettingsActivity")));
 	}
 	
-	class SettingsObserver extends ContentObserver {
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
-
-        void observe() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(Settings.System.getUriFor(
-            		Settings.System.QUICK_SETTINGS_CUSTOM), false, this);
-            update();
-        }
-
-        public void stop() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.unregisterContentObserver(this);
-        }
-
-        @Override
-        public void onChange(boolean selfChange) {
-            update();
-        }
-
-        public void update() {
-            refreshResources();
-        }
-    }
+	private final SettingsMonitor.Listener mSettingsListener = new SettingsMonitor.Listener() {
+		public void onSettingChanged(String key) {
+			refreshResources();
+		}
+	};
 
 	public Custom(Context context, View view) {
 		super(context, view);
@@ -91,7 +67,7 @@ public class Custom extends StatusBarPreference
 		pm = context.getPackageManager();
 		mContentView.setOnClickListener(this);
 		mContentView.setOnLongClickListener(this);
-		mHandler = new Handler();
+		mSettings = SettingsMonitor.getInstance(context);
 		init();
 	}
 	
@@ -99,31 +75,24 @@ public class Custom extends StatusBarPreference
 	public void init() {
 		//this.mSummary.setText("Tap to launch");
 	    this.mTag = TAG;
-	    refreshResources();
 		onStart();
+	    refreshResources();
 	}
 	
 	public void onStart(){
-		if (mSettingsObserver == null) {
-            mSettingsObserver = new SettingsObserver(mHandler);
-        }
-        mSettingsObserver.observe();
+		mSettings.addListener(mSettingsListener, Settings.System.QUICK_SETTINGS_CUSTOM);
 	}
 	
 	@Override
 	public void release(){
-		if (mSettingsObserver != null) {
-            mSettingsObserver.stop();
-            mSettingsObserver = null;
-        }
+		mSettings.removeListener(mSettingsListener);
 	}
 
     @Override
     public void refreshResources() {
         Drawable customIcon = CustomIconHelper.loadFromFile(mContext, true);
         
-        mCustomURI = Settings.System.getString(mContext.getContentResolver(), 
-        		Settings.System.QUICK_SETTINGS_CUSTOM);
+        mCustomURI = mSettings.getString(Settings.System.QUICK_SETTINGS_CUSTOM);
         CharSequence appname = "None selected";
         Drawable icon = mContext.getResources().getDrawable(android.R.drawable.sym_def_app_icon);
         
@@ -1,10 +1,14 @@
 package com.android.systemui.statusbar.phone.quicksettings;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.List;
 
 import android.content.BroadcastReceiver;
@@ -30,6 +34,7 @@ import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.widget.ImageView.ScaleType;
 import android.widget.Toast;
@@ -38,6 +43,10 @@ import com.android.systemui.R;
 import com.android.systemui.statusbar.phone.StatusBarPreference;
 import com.android.systemui.statusbar.policy.MediaPlayerWidget;
 
+import libcore.io.ErrnoException;
+import libcore.io.Libcore;
+import libcore.io.OsConstants;
+
 public class MediaPlayer extends StatusBarPreference 
 	implements View.OnClickListener {
 
@@ -51,6 +60,9 @@ public class MediaPlayer extends StatusBarPreference
     private static final Uri MUSIC_CONTENT_URI = Uri.parse("content://com.google.android.music.MusicContent");
     
     private static final String EMPTY = "";
+    
+    // decoded art is only shown at icon size, so this holds plenty of albums
+    private static final int ART_CACHE_BYTES = 1024 * 1024;
 
     private Worker mAlbumArtWorker;
     private AlbumArtHandler mAlbumArtHandler;
@@ -59,6 +71,19 @@ public class MediaPlayer extends StatusBarPreference
     private CursorLoader mMusicLoader;
     private Cursor cAlbums;
     private Cursor cMusicAlbums;
+    // album name -> album id, rebuilt whenever a loader delivers
+    private HashMap<String, Long> mAlbumIds;
+    private HashMap<String, Long> mMusicAlbumIds;
+    
+    private final LruCache<String, Bitmap> mArtCache = new LruCache<String, Bitmap>(ART_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+    private Bitmap mShownArt;
+    private final int mArtWidth;
+    private final int mArtHeight;
     
     private String mArtist = EMPTY;
     private String mTrack = EMPTY;
@@ -75,6 +100,10 @@ public class MediaPlayer extends StatusBarPreference
         super(context, view);
         
         pm = mContext.getPackageManager();
+        mArtWidth = mContext.getResources().getDimensionPixelSize(
+                android.R.dimen.notification_large_icon_width);
+        mArtHeight = mContext.getResources().getDimensionPixelSize(
+                android.R.dimen.notification_large_icon_height);
         mAlbumArtWorker = new Worker("album art worker");
         mAlbumArtHandler = new AlbumArtHandler(mAlbumArtWorker.getLooper());
         
@@ -235,6 +264,9 @@ public class MediaPlayer extends StatusBarPreference
         if(cMusicAlbums!=null){
             cMusicAlbums.close();
         }
+        mAlbumIds = null;
+        mMusicAlbumIds = null;
+        mArtCache.evictAll();
     }
 
     @Override
@@ -273,47 +305,38 @@ public class MediaPlayer extends StatusBarPreference
             mPlayer.setTrackTitle(trackName);
             
             // lets search local music first
-            if(cAlbums != null){
-                int col_album = cAlbums.getColumnIndex(MediaStore.Audio.Media.ALBUM);
-                int col_album_id = cAlbums.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
-                if(col_album >= 0 && col_album_id >= 0){
-                    cAlbums.moveToFirst();
-                    for(int x = 0; x < cAlbums.getCount(); x++){
-                        if(DEBUG) Log.d(TAG, "row:"+x+" album:"+cAlbums.getString(col_album)
-                                +" album id:"+cAlbums.getLong(col_album_id));
-                        if(cAlbums.getString(col_album).equals(mAlbum)){
-                            mAlbumId = cAlbums.getLong(col_album_id);
-                            albumid = cAlbums.getLong(col_album_id);
-                            break;
-                        }
-                        cAlbums.moveToNext();
-                    }
+            if(mAlbumIds != null && mAlbum != null){
+                Long id = mAlbumIds.get(mAlbum);
+                if(id != null){
+                    mAlbumId = id;
+                    albumid = id;
                 }
             }
             
             // now search for online music
-            if(cMusicAlbums != null && albumid < 0){
-                int col_album = cAlbums.getColumnIndex(MediaStore.Audio.Media.ALBUM);
-                int col_album_id = cAlbums.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
-                if(col_album_id >= 0 && col_album >= 0){
-                    cMusicAlbums.moveToFirst();
-                    for(int x = 0; x < cMusicAlbums.getCount(); x++){
-                        if(DEBUG) Log.d(TAG, "Music row:"+x+" album:"+cMusicAlbums.getString(col_album)
-                                +" album id:"+cMusicAlbums.getLong(col_album_id));
-                        if(cMusicAlbums.getString(col_album).equals(mAlbum)){
-                            mSongId = cMusicAlbums.getLong(col_album_id);
-                            songid = cMusicAlbums.getLong(col_album_id);
-                            break;
-                        }
-                        cMusicAlbums.moveToNext();
-                    }
+            if(mMusicAlbumIds != null && mAlbum != null && albumid < 0){
+                Long id = mMusicAlbumIds.get(mAlbum);
+                if(id != null){
+                    mSongId = id;
+                    songid = id;
                 }
-            }          
+            }
+            
+            mAlbumArtHandler.removeMessages(GET_ALBUM_ART);
+            
+            // another track from the same album needs no decoding at all
+            Bitmap cached = mArtCache.get(artKey(albumid, songid));
+            if(cached != null){
+                mHandler.removeMessages(ALBUM_ART_DECODED);
+                if(cached != mShownArt){
+                    showAlbumArt(cached);
+                }
+                return;
+            }
             
             /**
              * get the album art using a different thread
              */
-            mAlbumArtHandler.removeMessages(GET_ALBUM_ART);
             mAlbumArtHandler.obtainMessage(GET_ALBUM_ART, new AlbumSongIdWrapper(albumid, songid)).sendToTarget();
 
         } catch (Exception ex) {
@@ -321,6 +344,40 @@ public class MediaPlayer extends StatusBarPreference
         }
     }
     
+    private static String artKey(long albumid, long songid) {
+        // online albums are looked up by their id in the music provider,
+        // which is passed around as the song id
+        return albumid >= 0 ? "album:" + albumid : "music:" + songid;
+    }
+    
+    private void showAlbumArt(Bitmap bm) {
+        mShownArt = bm;
+        mIcon.setScaleType(ScaleType.CENTER_INSIDE);
+        mIcon.setImageBitmap(bm);
+        if(bm != null){
+            mIcon.getDrawable().setDither(true);
+        }
+    }
+    
+    private static HashMap<String, Long> indexAlbums(Cursor c) {
+        if(c == null) return null;
+        int col_album = c.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+        int col_album_id = c.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+        if(col_album < 0 || col_album_id < 0) return null;
+        
+        // one row per track, so most names repeat; the first row wins as
+        // it did when the cursor was searched from the top
+        HashMap<String, Long> ids = new HashMap<String, Long>();
+        c.moveToPosition(-1);
+        while(c.moveToNext()){
+            String album = c.getString(col_album);
+            if(album != null && !ids.containsKey(album)){
+                ids.put(album, c.getLong(col_album_id));
+            }
+        }
+        return ids;
+    }
+    
     private void setPauseButtonImage() {
         if(mPlaying){
             mPlayer.setPauseImage();
@@ -355,9 +412,11 @@ public class MediaPlayer extends StatusBarPreference
         @Override
         public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
             if(loader.getId()==0){
-                cAlbums = data;   
+                cAlbums = data;
+                mAlbumIds = indexAlbums(data);
             }else{
                 cMusicAlbums = data;
+                mMusicAlbumIds = indexAlbums(data);
             }
         }
     };
@@ -367,9 +426,7 @@ public class MediaPlayer extends StatusBarPreference
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case ALBUM_ART_DECODED:
-                    mIcon.setScaleType(ScaleType.CENTER_INSIDE);
-                    mIcon.setImageBitmap((Bitmap)msg.obj);
-                    mIcon.getDrawable().setDither(true);
+                    showAlbumArt((Bitmap)msg.obj);
                     break;
                 case REFRESH:
                     break;
@@ -380,7 +437,6 @@ public class MediaPlayer extends StatusBarPreference
     };
     
     public class AlbumArtHandler extends Handler {
-        private long mAlbumId = -1;
         
         public AlbumArtHandler(Looper looper) {
             super(looper);
@@ -390,26 +446,31 @@ public class MediaPlayer extends StatusBarPreference
         {
             long albumid = ((AlbumSongIdWrapper) msg.obj).albumid;
             long songid = ((AlbumSongIdWrapper) msg.obj).songid;
-            if (msg.what == GET_ALBUM_ART && (mAlbumId != albumid || albumid < 0)) {
-                // while decoding the new image, show the default album art
-                Message numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, null);
-                mHandler.removeMessages(ALBUM_ART_DECODED);
-                mHandler.sendMessageDelayed(numsg, 300);
-                // Don't allow default artwork here, because we want to fall back to song-specific
-                // album art if we can't find anything for the album.
-                Bitmap bm = MusicUtils.getArtwork(mContext, songid, albumid, false);
+            if (msg.what == GET_ALBUM_ART) {
+                final String key = artKey(albumid, songid);
+                Bitmap bm = mArtCache.get(key);
                 if (bm == null) {
-                    bm = MusicUtils.getArtwork(mContext, songid, -1);
-                    albumid = -1;
+                    // while decoding the new image, show the default album art
+                    Message numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, null);
+                    mHandler.removeMessages(ALBUM_ART_DECODED);
+                    mHandler.sendMessageDelayed(numsg, 300);
+                    // Don't allow default artwork here, because we want to fall back to song-specific
+                    // album art if we can't find anything for the album.
+                    bm = MusicUtils.getArtwork(mContext, songid, albumid, false, mArtWidth, mArtHeight);
+                    if (bm == null) {
+                        bm = MusicUtils.getArtwork(mContext, songid, -1, mArtWidth, mArtHeight);
+                    }
+                    if (bm != null) {
+                        mArtCache.put(key, bm);
+                    }
                 }
                 if (bm != null) {
-                    numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, bm);
+                    Message numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, bm);
                     mHandler.removeMessages(ALBUM_ART_DECODED);
                     mHandler.sendMessage(numsg);
                 }else{
                     Log.d(TAG, "album art returned null for "+songid);
                 }
-                mAlbumId = albumid;
             }
         }
     }
@@ -466,79 +527,173 @@ public class MediaPlayer extends StatusBarPreference
     
     private static class MusicUtils {
         private static int sArtId = -2;
-        private static Bitmap mCachedBit = null;
-        private static final BitmapFactory.Options sBitmapOptionsCache = new BitmapFactory.Options();
-        private static final BitmapFactory.Options sBitmapOptions = new BitmapFactory.Options();
         private static final Uri sArtworkUri = Uri.parse("content://media/external/audio/albumart");
         private static final Uri MUSIC_CONTENT_URI = Uri.parse("content://com.google.android.music.MusicContent");
         
         public static final String PLAYSTATE_CHANGED = "com.android.music.playstatechanged";
         public static final String META_CHANGED = "com.android.music.metachanged";
         
-        static {
-            // for the cache, 
+        /**
+         * Options to decode artwork of the given size at no more than twice
+         * 'width' x 'height'; art is only ever shown at icon size.
+         */
+        private static BitmapFactory.Options sampledOptions(int outWidth, int outHeight,
+                int width, int height) {
+            int sampleSize = 1;
+            while (outWidth / (sampleSize * 2) >= width && outHeight / (sampleSize * 2) >= height) {
+                sampleSize *= 2;
+            }
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = sampleSize;
             // 565 is faster to decode and display
             // and we don't want to dither here because the image will be scaled down later
-            sBitmapOptionsCache.inPreferredConfig = Bitmap.Config.RGB_565;
-            sBitmapOptionsCache.inDither = false;
-
-            sBitmapOptions.inPreferredConfig = Bitmap.Config.RGB_565;
-            sBitmapOptions.inDither = false;
+            opts.inPreferredConfig = Bitmap.Config.RGB_565;
+            opts.inDither = false;
+            return opts;
+        }
+        
+        // Largest artwork read from a pipe into memory.
+        private static final int MAX_STREAMED_ART_BYTES = 2 * 1024 * 1024;
+        
+        private static Bitmap decodeSampled(FileDescriptor fd, int width, int height) {
+            if (!isRegularFile(fd)) {
+                // A pipe, e.g. from a provider, can only be read once.
+                byte[] data = readArt(fd);
+                if (data == null) {
+                    return null;
+                }
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+                if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                    return null;
+                }
+                return BitmapFactory.decodeByteArray(data, 0, data.length,
+                        sampledOptions(bounds.outWidth, bounds.outHeight, width, height));
+            }
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            // the decoder puts a seekable descriptor back where it was, so it can be read twice
+            BitmapFactory.decodeFileDescriptor(fd, null, bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+            return BitmapFactory.decodeFileDescriptor(fd, null,
+                    sampledOptions(bounds.outWidth, bounds.outHeight, width, height));
+        }
+        
+        private static Bitmap decodeSampled(ContentResolver res, Uri uri, int width, int height)
+                throws FileNotFoundException {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            InputStream in = res.openInputStream(uri);
+            try {
+                BitmapFactory.decodeStream(in, null, bounds);
+            } finally {
+                closeQuietly(in);
+            }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+            in = res.openInputStream(uri);
+            try {
+                return BitmapFactory.decodeStream(in, null,
+                        sampledOptions(bounds.outWidth, bounds.outHeight, width, height));
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        
+        private static boolean isRegularFile(FileDescriptor fd) {
+            try {
+                return OsConstants.S_ISREG(Libcore.os.fstat(fd).st_mode);
+            } catch (ErrnoException e) {
+                return false;
+            }
+        }
+        
+        // Reads all of a non-seekable descriptor, or returns null if it holds
+        // more than MAX_STREAMED_ART_BYTES or can't be read.  The descriptor
+        // stays open; its ParcelFileDescriptor owns it.
+        private static byte[] readArt(FileDescriptor fd) {
+            InputStream in = new FileInputStream(fd);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            try {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, n);
+                    if (out.size() > MAX_STREAMED_ART_BYTES) {
+                        Log.w(TAG, "album art too large to read from a pipe");
+                        return null;
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "couldn't read album art", e);
+                return null;
+            }
+            return out.toByteArray();
+        }
+        
+        private static void closeQuietly(Closeable c) {
+            try {
+                if (c != null) {
+                    c.close();
+                }
+            } catch (IOException ex) {
+            }
         }
                 
         // get album art for specified file
         private static final String sExternalMediaUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.toString();
-        private static Bitmap getArtworkFromFile(Context context, long songid, long albumid) {
+        private static Bitmap getArtworkFromFile(Context context, long songid, long albumid,
+                int width, int height) {
             Bitmap bm = null;
 
             if (albumid < 0 && songid < 0) {
                 throw new IllegalArgumentException("Must specify an album or a song id");
             }
 
+            ParcelFileDescriptor pfd = null;
             try {
                 if (albumid < 0) {
                     // for online music
                     Log.d(TAG, "looking here for album art:"+MUSIC_CONTENT_URI+"/albumart/"+songid);
                     Uri uri = Uri.withAppendedPath(MUSIC_CONTENT_URI, "albumart/"+songid);
-                    ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
-                    if (pfd != null) {
-                        FileDescriptor fd = pfd.getFileDescriptor();
-                        bm = BitmapFactory.decodeFileDescriptor(fd);
-                    }
+                    pfd = context.getContentResolver().openFileDescriptor(uri, "r");
                 } else {
                     // local music
                     Uri uri = ContentUris.withAppendedId(sArtworkUri, albumid);
                     Log.d(TAG, "looking here for album art:"+uri.toSafeString());
-                    ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
-                    if (pfd != null) {
-                        FileDescriptor fd = pfd.getFileDescriptor();
-                        bm = BitmapFactory.decodeFileDescriptor(fd);
-                    }
+                    pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+                }
+                if (pfd != null) {
+                    bm = decodeSampled(pfd.getFileDescriptor(), width, height);
                 }
             } catch (IllegalStateException ex) {
             } catch (FileNotFoundException ex) {
-            }
-            if (bm != null) {
-                mCachedBit = bm;
+            } finally {
+                closeQuietly(pfd);
             }
             return bm;
         }
         
-        public static Bitmap getArtwork(Context context, long song_id, long album_id) {
-            return getArtwork(context, song_id, album_id, true);
+        public static Bitmap getArtwork(Context context, long song_id, long album_id,
+                int width, int height) {
+            return getArtwork(context, song_id, album_id, true, width, height);
         }
         
-        /** Get album art for specified album. You should not pass in the album id
-         * for the "unknown" album here (use -1 instead)
+        /** Get album art for specified album, decoded at about 'width' x 'height'.
+         * You should not pass in the album id for the "unknown" album here (use -1 instead)
          */
         public static Bitmap getArtwork(Context context, long song_id, long album_id,
-                boolean allowdefault) {
+                boolean allowdefault, int width, int height) {
 
             if (album_id < 0) {
                 // This is something that is not in the database, so get the album art directly
                 // from the file.
                 if (song_id >= 0) {
-                    Bitmap bm = getArtworkFromFile(context, song_id, -1);
+                    Bitmap bm = getArtworkFromFile(context, song_id, -1, width, height);
                     if (bm != null) {
                         return bm;
                     }
@@ -552,14 +707,12 @@ public class MediaPlayer extends StatusBarPreference
             ContentResolver res = context.getContentResolver();
             Uri uri = ContentUris.withAppendedId(sArtworkUri, album_id);
             if (uri != null) {
-                InputStream in = null;
                 try {
-                    in = res.openInputStream(uri);
-                    return BitmapFactory.decodeStream(in, null, sBitmapOptions);
+                    return decodeSampled(res, uri, width, height);
                 } catch (FileNotFoundException ex) {
                     // The album art thumbnail does not actually exist. Maybe the user deleted it, or
                     // maybe it never existed to begin with.
-                    Bitmap bm = getArtworkFromFile(context, song_id, album_id);
+                    Bitmap bm = getArtworkFromFile(context, song_id, album_id, width, height);
                     if (bm != null) {
                         if (bm.getConfig() == null) {
                             bm = bm.copy(Bitmap.Config.RGB_565, false);
@@ -571,13 +724,6 @@ public class MediaPlayer extends StatusBarPreference
                         bm = getDefaultArtwork(context);
                     }
                     return bm;
-                } finally {
-                    try {
-                        if (in != null) {
-                            in.close();
-                        }
-                    } catch (IOException ex) {
-                    }
                 }
             }
             
@@ -18,6 +18,7 @@ package com.android.systemui.statusbar.phone.quicksettings;
 
 import android.content.Context;
 import android.provider.Settings;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -30,15 +31,24 @@ import com.android.systemui.R;
 import com.android.systemui.statusbar.phone.PreferenceView;
 import com.android.systemui.statusbar.phone.StatusBarPreference;
 
-import java.lang.reflect.Constructor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class QuickSettings extends LinearLayout {
     private static final String TAG = "SettingsView";
     private static final boolean DEBUG = true;
     
-    private StatusBarPreference[] mSettingItems;
+    private final ArrayList<StatusBarPreference> mSettingItems =
+            new ArrayList<StatusBarPreference>();
+    // tiles that are configured but not built until the page is shown
+    private final ArrayList<String> mPendingTiles = new ArrayList<String>();
+    // time taken to inflate and construct each tile, in ns
+    private final LinkedHashMap<String, Long> mTileCosts = new LinkedHashMap<String, Long>();
     private String mLoadedSettings;
+    private String mParsedSettings;
     private LayoutInflater mInflater;
     private Context mContext;
     
@@ -68,28 +78,107 @@ public class QuickSettings extends LinearLayout {
     private static final String QUICK_TETHER = "QuickTether";
     
     
-    private static final HashMap<String, Class<? extends StatusBarPreference>> SETTINGS = 
-            new HashMap<String, Class<? extends StatusBarPreference>>();
-    
+    /**
+     * Builds one tile around the content view of a status_bar_preference.
+     */
+    interface TileFactory {
+        StatusBarPreference create(Context context, View view);
+    }
+
+    private static final HashMap<String, TileFactory> SETTINGS =
+            new HashMap<String, TileFactory>();
+
     static{
-        SETTINGS.put(QUICK_AIRPLANE, AirplaneMode.class);
-        SETTINGS.put(QUICK_ROTATE, AutoRotate.class);
-        SETTINGS.put(QUICK_BRIGHTNESS, Brightness.class);
-        SETTINGS.put(QUICK_NODISTURB, DoNotDisturb.class); 
-        SETTINGS.put(QUICK_TORCH, BAMFTorch.class);
-        SETTINGS.put(QUICK_SETTING, SettingsShortcut.class);
-        SETTINGS.put(QUICK_WIFI, Wifi.class); 
-        SETTINGS.put(QUICK_VOLUME, Volume.class);
-        SETTINGS.put(QUICK_LTE, LTE.class);
-        SETTINGS.put(QUICK_CUSTOM, Custom.class);
-        SETTINGS.put(QUICK_BLUETOOTH, Bluetooth.class);
-        SETTINGS.put(QUICK_ADB, WirelessADB.class);
-        SETTINGS.put(QUICK_GPS, GPSMode.class);
-        SETTINGS.put(QUICK_MOBILE_DATA, MobileData.class);
-        SETTINGS.put(QUICK_SYNC, SyncData.class);
-        SETTINGS.put(QUICK_MEDIA, MediaPlayer.class);
-        SETTINGS.put(QUICK_HOTSPOT, Hotspot.class);
-        SETTINGS.put(QUICK_TETHER, USBTether.class);
+        SETTINGS.put(QUICK_AIRPLANE, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new AirplaneMode(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_ROTATE, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new AutoRotate(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_BRIGHTNESS, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Brightness(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_NODISTURB, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new DoNotDisturb(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_TORCH, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new BAMFTorch(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_SETTING, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new SettingsShortcut(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_WIFI, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Wifi(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_VOLUME, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Volume(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_LTE, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new LTE(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_CUSTOM, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Custom(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_BLUETOOTH, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Bluetooth(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_ADB, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new WirelessADB(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_GPS, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new GPSMode(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_MOBILE_DATA, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new MobileData(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_SYNC, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new SyncData(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_MEDIA, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new MediaPlayer(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_HOTSPOT, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new Hotspot(context, view);
+            }
+        });
+        SETTINGS.put(QUICK_TETHER, new TileFactory() {
+            public StatusBarPreference create(Context context, View view) {
+                return new USBTether(context, view);
+            }
+        });
     }
     
     private static final String SETTING_DELIMITER = "|";
@@ -131,63 +220,79 @@ public class QuickSettings extends LinearLayout {
         String settings = Settings.System.getString(mContext.getContentResolver(), 
                 Settings.System.QUICK_SETTINGS);
         
-        if(mLoadedSettings.equals(settings)){
-            return false;
-        }
-        
-        return true;
+        return !TextUtils.equals(mLoadedSettings, settings);
     }
     
+    /**
+     * Reads the configured tiles.  The tiles themselves are only built, and
+     * their receivers and workers started, once the page is first shown.
+     */
     public void loadSettings(){
         
         String settings = Settings.System.getString(mContext.getContentResolver(), 
                 Settings.System.QUICK_SETTINGS);
+        // keep what was read so isDirty() can compare it as is
+        mLoadedSettings = settings;
         if(settings == null) {
             Log.i(TAG, "Default settings being loaded");
             settings = SETTINGS_DEFAULT;
         }
         
-        if(mLoadedSettings.equals(settings)){
+        if(settings.equals(mParsedSettings)){
             Log.i(TAG, "no changes; not reloading");
             return;
         }
+        mParsedSettings = settings;
         
-        // just in case one sneaks in, get rid of it
-    	for(String config: mConfigs.keySet()){
-    		if(settings.contains(config) && !mConfigs.get(config))
-    			settings = settings.replace(config, EMPTY_STRING).replace("||", "|");
-    	}
+        release();
+        removeAllViews();
+        mSettingItems.clear();
+        mTileCosts.clear();
+        mPendingTiles.clear();
         
-        mLoadedSettings = settings;
+        for(String setting : TextUtils.split(settings, "\\|")) {
+            // just in case one sneaks in, get rid of it
+            Boolean allowed = mConfigs.get(setting);
+            if(allowed != null && !allowed) continue;
+            if(SETTINGS.containsKey(setting)){
+                mPendingTiles.add(setting);
+            }
+        }
         
-        removeAllViews();
+        if(isShown()){
+            createPendingTiles();
+        }
+    }
+    
+    private void createPendingTiles(){
+        if(mPendingTiles.isEmpty()) return;
         
-        mSettingItems = new StatusBarPreference[settings.split("\\|").length];
-        int count = 0;
-
-        for(String setting : settings.split("\\|")) {
+        for(String setting : mPendingTiles) {
             Log.i(TAG, "Inflating setting: " + setting);
-
-            if(SETTINGS.containsKey(setting)){
-                try {
-                    // inflate the setting
-                    LinearLayout settingView = (LinearLayout)mInflater.inflate(R.layout.status_bar_preference, null, false);                                      
-                    Class<?> cls = SETTINGS.get(setting);
-                    
-                    Constructor<?> con = cls.getConstructor(new Class[]{Context.class, View.class});
-                    StatusBarPreference pref = 
-                            (StatusBarPreference)con.newInstance(new Object[]{mContext, settingView.getChildAt(0)});
-                    mSettingItems[count] = pref;
-                    
-                    // add it to the view here
-                    addView(settingView);
-                    
-                    count++;
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }         
+            final long begin = System.nanoTime();
+            try {
+                // inflate the setting
+                LinearLayout settingView = (LinearLayout)mInflater.inflate(R.layout.status_bar_preference, null, false);
+                StatusBarPreference pref = SETTINGS.get(setting).create(mContext, settingView.getChildAt(0));
+                mSettingItems.add(pref);
+                
+                // add it to the view here
+                addView(settingView);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+            mTileCosts.put(setting, System.nanoTime() - begin);
+        }
+        mPendingTiles.clear();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        // called for the page and every ancestor, so this also catches the
+        // first time the panel itself is opened
+        if(visibility == View.VISIBLE && isShown()){
+            createPendingTiles();
         }
     }
 
@@ -211,34 +316,33 @@ public class QuickSettings extends LinearLayout {
     }
 
     public void release(){
-    	//TODO: add a setting to disable them instead
-    	if(mLoadedSettings.trim().equals(EMPTY_STRING)) return;
-        synchronized (mSettingItems) {
-            // cycle through our settings and release them
-            for(StatusBarPreference qs : mSettingItems) {
-                try{
-                    qs.release();
-                }catch(Exception e){
-                    Log.e(TAG, "Error on release ("+((qs==null)?"None selected":qs.getTag())+")");
-                }
-            }
-            
+        // cycle through our settings and release them
+        for(StatusBarPreference qs : mSettingItems) {
+            try{
+                qs.release();
+            }catch(Exception e){
+                Log.e(TAG, "Error on release ("+qs.getTag()+")");
+            }
         }
     }
     
     public void refreshResources(){
-    	//TODO: add a setting to disable them instead
-    	if(mLoadedSettings.trim().equals(EMPTY_STRING)) return;
-        synchronized (mSettingItems) {
-            // cycle through our settings and refresh anything necessary
-            for(StatusBarPreference qs : mSettingItems) {
-                try{
-                    qs.refreshResources();
-                }catch(Exception e){
-                    Log.e(TAG, "Error on refresh ("+((qs==null)?"None selected":qs.getTag())+")");
-                }
-            }
-            
+        // cycle through our settings and refresh anything necessary
+        for(StatusBarPreference qs : mSettingItems) {
+            try{
+                qs.refreshResources();
+            }catch(Exception e){
+                Log.e(TAG, "Error on refresh ("+qs.getTag()+")");
+            }
+        }
+    }
+    
+    public void dump(PrintWriter pw){
+        pw.print("  QuickSettings: tiles="); pw.print(mSettingItems.size());
+        pw.print(" pending="); pw.println(mPendingTiles.size());
+        for(Map.Entry<String, Long> cost : mTileCosts.entrySet()) {
+            pw.print("    "); pw.print(cost.getKey());
+            pw.print(" init="); pw.print(cost.getValue() / 1000); pw.println("us");
         }
     }
 
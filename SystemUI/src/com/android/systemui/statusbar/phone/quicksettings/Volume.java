@@ -1,6 +1,5 @@
 package com.android.systemui.statusbar.phone.quicksettings;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
@@ -9,13 +8,12 @@ import android.view.View;
 import android.media.AudioManager;
 import android.media.AudioService;
 import android.media.AudioSystem;
-import android.os.Handler;
 import android.provider.Settings;
 import android.provider.Settings.System;
-import android.database.ContentObserver;
 
 import com.android.systemui.R;
 import com.android.systemui.statusbar.phone.StatusBarPreference;
+import com.android.systemui.statusbar.policy.SettingsMonitor;
 import com.android.systemui.statusbar.policy.ToggleSlider;
 
 
@@ -49,14 +47,13 @@ public class Volume extends StatusBarPreference
     private static int STREAM_TYPE = 3;
     
     private AudioManager mAudioManager;  
-    private Handler mHandler = new Handler();
     private VolumeObserver mVolumeObserver;
 
     public Volume(Context context, View view) {
         super(context, view);
         mAudioManager = (AudioManager)mContext.getSystemService(Context.AUDIO_SERVICE);
         mSlider.setOnChangedListener(this);
-        mVolumeObserver = new VolumeObserver(mHandler);
+        mVolumeObserver = new VolumeObserver();
         init();
     }
     
@@ -100,24 +97,18 @@ public class Volume extends StatusBarPreference
         mVolumeObserver.observe();
     }
     
-    private class VolumeObserver extends ContentObserver {
-        
-        public VolumeObserver(Handler handler) {
-            super(handler);
-        }
+    private class VolumeObserver implements SettingsMonitor.Listener {
+        private final SettingsMonitor mSettings = SettingsMonitor.getInstance(mContext);
 
         void observe() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.registerContentObserver(Settings.System.getUriFor(
-                    Settings.System.VOLUME_SETTINGS[STREAM_TYPE] + "_" + getDeviceNameForStream(STREAM_TYPE)), false, this);
-            Log.d(TAG, "registered uri "+Settings.System.getUriFor(
-                    Settings.System.VOLUME_SETTINGS[STREAM_TYPE] + "_" + getDeviceNameForStream(STREAM_TYPE)));
+            String key = Settings.System.VOLUME_SETTINGS[STREAM_TYPE] + "_" + getDeviceNameForStream(STREAM_TYPE);
+            mSettings.addListener(this, key);
+            Log.d(TAG, "registered key "+key);
             update();
         }
         
         public void stop() {
-            ContentResolver resolver = mContext.getContentResolver();
-            resolver.unregisterContentObserver(this);
+            mSettings.removeListener(this);
         }
         
         public void reset(){
@@ -126,15 +117,14 @@ public class Volume extends StatusBarPreference
         }
 
         @Override
-        public void onChange(boolean selfChange) {
+        public void onSettingChanged(String key) {
             update();
         }
 
         public void update() {
-            ContentResolver resolver = mContext.getContentResolver();
-            int mValue = Settings.System.getInt(resolver,
+            int mValue = mSettings.getInt(
                     Settings.System.VOLUME_SETTINGS[STREAM_TYPE] + "_" + getDeviceNameForStream(STREAM_TYPE), 
-                    Settings.System.getInt(resolver, Settings.System.VOLUME_SETTINGS[STREAM_TYPE], 0));
+                    mSettings.getInt(Settings.System.VOLUME_SETTINGS[STREAM_TYPE], 0));
             mSlider.setValue(mValue);
         }
     };
@@ -23,11 +23,9 @@ import android.app.ActivityManager.RunningAppProcessInfo;
 import android.app.ActivityManagerNative;
 import android.app.IActivityManager;
 import android.content.ActivityNotFoundException;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
-import android.database.ContentObserver;
 import android.os.Handler;
 import android.os.RemoteException;
 import android.os.ServiceManager;
@@ -73,11 +71,9 @@ public class CustomKeyButtonView extends KeyButtonView implements OnLongClickLis
 	private boolean mDisabled = false;	
 	private String mLongPressFunction = ACTION_DEFAULT;
 	private boolean mLongPressed = false;
-	private ContentResolver mResolver;
+	private SettingsMonitor mSettings;
 	
 	Handler mHandler = new Handler();
-	//for changes to the layout
-    SettingsObserver mSettingsObserver = new SettingsObserver(mHandler);
     
     public CustomKeyButtonView(Context context) {
         this(context, null);
@@ -89,8 +85,7 @@ public class CustomKeyButtonView extends KeyButtonView implements OnLongClickLis
 
     public CustomKeyButtonView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs);        
-        mResolver = context.getContentResolver();
-        mSettingsObserver.observe();
+        mSettings = SettingsMonitor.getInstance(context);
     }
     
     @Override
@@ -102,34 +97,41 @@ public class CustomKeyButtonView extends KeyButtonView implements OnLongClickLis
     	mCode = code;
     }
     
-    class SettingsObserver extends ContentObserver {
-    	
-    	ContentResolver resolver;
-    	
-        SettingsObserver(Handler handler) {
-            super(handler);
-        }
-        
-        void observe() {
-        	resolver = mContext.getContentResolver();
-		    resolver.registerContentObserver(
-		    		Settings.System.getUriFor(Settings.System.LONG_ACTION_BACK), false, this);
-		    resolver.registerContentObserver(
-	            	Settings.System.getUriFor(Settings.System.LONG_ACTION_HOME), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.LONG_ACTION_MENU), false, this);
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.LONG_ACTION_RECENT), false, this);            
-            resolver.registerContentObserver(
-                    Settings.System.getUriFor(Settings.System.LONG_ACTION_SEARCH), false, this);            
+    // only the setting for this button's own id matters to it
+    private final SettingsMonitor.Listener mSettingsListener = new SettingsMonitor.Listener() {
+        public void onSettingChanged(String key) {
+            if (key.equals(longPressSetting(getId()))) {
+                setLongPress();
+            }
         }
-        
-        @Override
-        public void onChange(boolean selfChange) {        	
-            setLongPress();
+    };
+    
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mSettings.addListener(mSettingsListener,
+                Settings.System.LONG_ACTION_BACK,
+                Settings.System.LONG_ACTION_HOME,
+                Settings.System.LONG_ACTION_MENU,
+                Settings.System.LONG_ACTION_RECENT,
+                Settings.System.LONG_ACTION_SEARCH);
+    }
+    
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mSettings.removeListener(mSettingsListener);
+    }
+    
+    private static String longPressSetting(int id) {
+        switch (id) {
+            case ID_RECENT: return Settings.System.LONG_ACTION_RECENT;
+            case ID_SEARCH: return Settings.System.LONG_ACTION_SEARCH;
+            case ID_HOME: return Settings.System.LONG_ACTION_HOME;
+            case ID_BACK: return Settings.System.LONG_ACTION_BACK;
+            case ID_MENU: return Settings.System.LONG_ACTION_MENU;
+            default: return null;
         }
-        
-       
     }
     
     public void setLongPress(){
@@ -139,25 +141,25 @@ public class CustomKeyButtonView extends KeyButtonView implements OnLongClickLis
     	
     	switch(getId()){
 			case ID_RECENT:
-				action = Settings.System.getString(mResolver,
+				action = mSettings.getString(
 						Settings.System.LONG_ACTION_RECENT, ACTION_DEFAULT_NONE);				
 				break;
 			case ID_SEARCH:
-				action = Settings.System.getString(mResolver,
+				action = mSettings.getString(
 						Settings.System.LONG_ACTION_SEARCH, ACTION_DEFAULT);
 				support = true;
 				break;	
 			case ID_HOME:
-				action = Settings.System.getString(mResolver,
+				action = mSettings.getString(
 						Settings.System.LONG_ACTION_HOME, ACTION_DEFAULT);						
 				break;
 			case ID_BACK:
-				action = Settings.System.getString(mResolver,
+				action = mSettings.getString(
 						Settings.System.LONG_ACTION_BACK, ACTION_DEFAULT_NONE);	
 				support = true;
 				break;
 			case ID_MENU:
-				action = Settings.System.getString(mResolver,
+				action = mSettings.getString(
 						Settings.System.LONG_ACTION_MENU, ACTION_DEFAULT_NONE);					
 				break;
     	}
@@ -37,6 +37,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.Settings;
 import android.provider.Telephony;
@@ -44,6 +45,7 @@ import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.Slog;
 import android.view.View;
 import android.widget.ImageView;
@@ -132,7 +134,6 @@ public class NetworkController extends BroadcastReceiver {
     private static final int INET_CONDITION_THRESHOLD = 50;
 
     private boolean mAirplaneMode = false;
-    private boolean mLastAirplaneMode = true;
 
     // our ui
     Context mContext;
@@ -148,14 +149,22 @@ public class NetworkController extends BroadcastReceiver {
     ArrayList<TextView> mWifiLabelViews = new ArrayList<TextView>();
     ArrayList<TextView> mEmergencyLabelViews = new ArrayList<TextView>();
     ArrayList<SignalCluster> mSignalClusters = new ArrayList<SignalCluster>();
-    int mLastPhoneSignalIconId = -1;
-    int mLastDataDirectionIconId = -1;
-    int mLastDataDirectionOverlayIconId = -1;
-    int mLastWifiIconId = -1;
-    int mLastWimaxIconId = -1;
-    int mLastCombinedSignalIconId = -1;
-    int mLastDataTypeIconId = -1;
-    String mLastCombinedLabel = "";
+    // what the views show; null until the first refresh, or after a view
+    // is added, so that every view group gets set
+    private ViewState mLastViewState;
+    private int mRefreshes;
+    private int mChangedRefreshes;
+    private int mGroupUpdates;
+
+    // low priority refreshes are spaced out by this much, in ms
+    private final long mLowPriorityRefreshInterval;
+    private final Handler mHandler = new Handler();
+    private long mLastRefreshTime;
+    private boolean mRefreshPending;
+    private int mThrottledRequests;
+    // refreshes per second over the last minute, indexed by uptime second
+    private final long[] mRefreshSeconds = new long[60];
+    private final int[] mRefreshCounts = new int[60];
 
     private boolean mHasMobileDataFeature;
 
@@ -187,6 +196,8 @@ public class NetworkController extends BroadcastReceiver {
         mShowAtLeastThreeGees = res.getBoolean(R.bool.config_showMin3G);
         mAlwaysShowCdmaRssi = res.getBoolean(
                 com.android.internal.R.bool.config_alwaysUseCdmaRssi);
+        mLowPriorityRefreshInterval = res.getInteger(
+                R.integer.config_networkLowPriorityRefreshInterval);
 
         // set up the default wifi icon, used when no radios have ever appeared
         updateWifiIcons();
@@ -252,45 +263,56 @@ public class NetworkController extends BroadcastReceiver {
     }
     public void addPhoneSignalIconView(ImageView v) {
         mPhoneSignalIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addDataDirectionIconView(ImageView v) {
         mDataDirectionIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addDataDirectionOverlayIconView(ImageView v) {
         mDataDirectionOverlayIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addWifiIconView(ImageView v) {
         mWifiIconViews.add(v);
+        mLastViewState = null;
     }
     public void addWimaxIconView(ImageView v) {
         mWimaxIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addCombinedSignalIconView(ImageView v) {
         mCombinedSignalIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addDataTypeIconView(ImageView v) {
         mDataTypeIconViews.add(v);
+        mLastViewState = null;
     }
 
     public void addCombinedLabelView(TextView v) {
         mCombinedLabelViews.add(v);
+        mLastViewState = null;
     }
 
     public void addMobileLabelView(TextView v) {
         mMobileLabelViews.add(v);
+        mLastViewState = null;
     }
 
     public void addWifiLabelView(TextView v) {
         mWifiLabelViews.add(v);
+        mLastViewState = null;
     }
 
     public void addEmergencyLabelView(TextView v) {
         mEmergencyLabelViews.add(v);
+        mLastViewState = null;
     }
 
     public void addSignalCluster(SignalCluster cluster) {
@@ -335,8 +357,10 @@ public class NetworkController extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         final String action = intent.getAction();
-        if (action.equals(WifiManager.RSSI_CHANGED_ACTION)
-                || action.equals(WifiManager.WIFI_STATE_CHANGED_ACTION)
+        if (action.equals(WifiManager.RSSI_CHANGED_ACTION)) {
+            updateWifiState(intent);
+            refreshViewsThrottled();
+        } else if (action.equals(WifiManager.WIFI_STATE_CHANGED_ACTION)
                 || action.equals(WifiManager.NETWORK_STATE_CHANGED_ACTION)) {
             updateWifiState(intent);
             refreshViews();
@@ -359,8 +383,10 @@ public class NetworkController extends BroadcastReceiver {
         } else if (action.equals(Intent.ACTION_AIRPLANE_MODE_CHANGED)) {
             updateAirplaneMode();
             refreshViews();
+        } else if (action.equals(WimaxManagerConstants.SIGNAL_LEVEL_CHANGED_ACTION)) {
+            updateWimaxState(intent);
+            refreshViewsThrottled();
         } else if (action.equals(WimaxManagerConstants.NET_4G_STATE_CHANGED_ACTION) ||
-                action.equals(WimaxManagerConstants.SIGNAL_LEVEL_CHANGED_ACTION) ||
                 action.equals(WimaxManagerConstants.WIMAX_NETWORK_STATE_CHANGED_ACTION)) {
             updateWimaxState(intent);
             refreshViews();
@@ -377,9 +403,14 @@ public class NetworkController extends BroadcastReceiver {
                 Slog.d(TAG, "onSignalStrengthsChanged signalStrength=" + signalStrength +
                     ((signalStrength == null) ? "" : (" level=" + signalStrength.getLevel())));
             }
+            final int oldLevel = mLastSignalLevel;
             mSignalStrength = signalStrength;
             updateTelephonySignalStrength();
-            refreshViews();
+            if (isMinorSignalChange(oldLevel)) {
+                refreshViewsThrottled();
+            } else {
+                refreshViews();
+            }
         }
 
         @Override
@@ -426,7 +457,7 @@ public class NetworkController extends BroadcastReceiver {
             }
             mDataActivity = direction;
             updateDataIcon();
-            refreshViews();
+            refreshViewsThrottled();
         }
     };
 
@@ -751,7 +782,7 @@ public class NetworkController extends BroadcastReceiver {
                 case WifiManager.DATA_ACTIVITY_NOTIFICATION:
                     if (msg.arg1 != mWifiActivity) {
                         mWifiActivity = msg.arg1;
-                        refreshViews();
+                        refreshViewsThrottled();
                     }
                     break;
                 default:
@@ -917,7 +948,79 @@ public class NetworkController extends BroadcastReceiver {
 
     // ===== Update the views =======================================================
 
+    /**
+     * Whether a new signal strength only moved the bars by one step while
+     * there is service, which can wait for the next throttled refresh.
+     * Losing or regaining signal is shown at once.
+     */
+    private boolean isMinorSignalChange(int oldLevel) {
+        if (!hasService() || mSignalStrength == null) {
+            return false;
+        }
+        return oldLevel > 0 && mLastSignalLevel > 0 && Math.abs(mLastSignalLevel - oldLevel) <= 1;
+    }
+
+    /**
+     * Refreshes the views for a low priority change: data activity arrows
+     * and small signal strength changes.  Refreshes for these are spaced at
+     * least mLowPriorityRefreshInterval apart; any refresh in between,
+     * throttled or not, picks them up.
+     */
+    void refreshViewsThrottled() {
+        mThrottledRequests++;
+        if (mRefreshPending) {
+            return;
+        }
+        final long next = mLastRefreshTime + mLowPriorityRefreshInterval;
+        if (SystemClock.uptimeMillis() >= next) {
+            refreshViews();
+        } else {
+            mRefreshPending = true;
+            mHandler.postAtTime(mThrottledRefresh, next);
+        }
+    }
+
+    private final Runnable mThrottledRefresh = new Runnable() {
+        public void run() {
+            mRefreshPending = false;
+            refreshViews();
+        }
+    };
+
+    // Counts a refresh in the per-second buckets of the last minute.
+    private void noteRefresh(long now) {
+        final long second = now / 1000;
+        final int i = (int) (second % mRefreshSeconds.length);
+        if (mRefreshSeconds[i] != second) {
+            mRefreshSeconds[i] = second;
+            mRefreshCounts[i] = 0;
+        }
+        mRefreshCounts[i]++;
+    }
+
+    private int getRefreshesInLastMinute() {
+        final long second = SystemClock.uptimeMillis() / 1000;
+        int count = 0;
+        for (int i = 0; i < mRefreshSeconds.length; i++) {
+            if (second - mRefreshSeconds[i] < mRefreshSeconds.length) {
+                count += mRefreshCounts[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Refreshes the views now, along with any throttled change still
+     * waiting.
+     */
     void refreshViews() {
+        if (mRefreshPending) {
+            mHandler.removeCallbacks(mThrottledRefresh);
+            mRefreshPending = false;
+        }
+        mLastRefreshTime = SystemClock.uptimeMillis();
+        noteRefresh(mLastRefreshTime);
+
         Context context = mContext;
 
         int combinedSignalIconId = 0;
@@ -1098,174 +1201,246 @@ public class NetworkController extends BroadcastReceiver {
                     + " mBluetoothTetherIconId=0x" + Integer.toHexString(mBluetoothTetherIconId));
         }
 
-        if (mLastPhoneSignalIconId          != mPhoneSignalIconId
-         || mLastDataDirectionOverlayIconId != combinedActivityIconId
-         || mLastWifiIconId                 != mWifiIconId
-         || mLastWimaxIconId                != mWimaxIconId
-         || mLastDataTypeIconId             != mDataTypeIconId
-         || mLastAirplaneMode               != mAirplaneMode)
-        {
-            // NB: the mLast*s will be updated later
-            for (SignalCluster cluster : mSignalClusters) {
-                refreshSignalCluster(cluster);
+        final ViewState state = new ViewState(combinedSignalIconId, combinedActivityIconId,
+                combinedLabel, wifiLabel, mobileLabel, emergencyOnly);
+        mRefreshes++;
+        if (applyViewState(state, mLastViewState)) {
+            mChangedRefreshes++;
+        }
+        mLastViewState = state;
+    }
+
+    /**
+     * Everything refreshViews() puts on screen, taken from the controller's
+     * fields when it is created and never changed afterwards.
+     */
+    private final class ViewState {
+        // what refreshSignalCluster() passes on
+        final boolean wifiVisible;
+        final int wifiIconId;
+        final int wifiActivityIconId;
+        final String wifiDescription;
+        final boolean mobileVisible;
+        final int mobileIconId;
+        final int mobileActivityIconId;
+        final String mobileDescription;
+        final int dataTypeIconId;
+        final String dataTypeDescription;
+        final boolean airplaneMode;
+        final int airplaneIconId;
+
+        final int phoneSignalIconId;
+        final String phoneSignalDescription;
+        final int dataDirectionIconId;
+        final int wimaxIconId;
+        final String wimaxDescription;
+        final int combinedSignalIconId;
+        final String combinedSignalDescription;
+        final int combinedActivityIconId;
+
+        final String combinedLabel;
+        final String wifiLabel;
+        final String mobileLabel;
+        final boolean emergencyOnly;
+
+        ViewState(int combinedSignalIconId, int combinedActivityIconId, String combinedLabel,
+                String wifiLabel, String mobileLabel, boolean emergencyOnly) {
+            wifiVisible = mWifiEnabled && (mWifiConnected || !mHasMobileDataFeature);
+            wifiIconId = mWifiIconId;
+            wifiActivityIconId = mWifiActivityIconId;
+            wifiDescription = mContentDescriptionWifi;
+            if (mIsWimaxEnabled && mWimaxConnected) {
+                mobileVisible = true;
+                mobileIconId = mAlwaysShowCdmaRssi ? mPhoneSignalIconId : mWimaxIconId;
+                mobileDescription = mContentDescriptionWimax;
+            } else {
+                mobileVisible = mHasMobileDataFeature;
+                mobileIconId = mShowPhoneRSSIForData ? mPhoneSignalIconId : mDataSignalIconId;
+                mobileDescription = mContentDescriptionPhoneSignal;
             }
+            mobileActivityIconId = mMobileActivityIconId;
+            dataTypeIconId = mDataTypeIconId;
+            dataTypeDescription = mContentDescriptionDataType;
+            airplaneMode = mAirplaneMode;
+            airplaneIconId = mAirplaneIconId;
+
+            phoneSignalIconId = mPhoneSignalIconId;
+            phoneSignalDescription = mContentDescriptionPhoneSignal;
+            dataDirectionIconId = mDataDirectionIconId;
+            wimaxIconId = mWimaxIconId;
+            wimaxDescription = mContentDescriptionWimax;
+            this.combinedSignalIconId = combinedSignalIconId;
+            combinedSignalDescription = mContentDescriptionCombinedSignal;
+            this.combinedActivityIconId = combinedActivityIconId;
+
+            this.combinedLabel = combinedLabel;
+            this.wifiLabel = wifiLabel;
+            this.mobileLabel = mobileLabel;
+            this.emergencyOnly = emergencyOnly;
         }
 
-        if (mLastAirplaneMode != mAirplaneMode) {
-            mLastAirplaneMode = mAirplaneMode;
+        boolean sameSignalCluster(ViewState o) {
+            return wifiVisible == o.wifiVisible
+                    && wifiIconId == o.wifiIconId
+                    && wifiActivityIconId == o.wifiActivityIconId
+                    && TextUtils.equals(wifiDescription, o.wifiDescription)
+                    && mobileVisible == o.mobileVisible
+                    && mobileIconId == o.mobileIconId
+                    && mobileActivityIconId == o.mobileActivityIconId
+                    && TextUtils.equals(mobileDescription, o.mobileDescription)
+                    && dataTypeIconId == o.dataTypeIconId
+                    && TextUtils.equals(dataTypeDescription, o.dataTypeDescription)
+                    && airplaneMode == o.airplaneMode
+                    && airplaneIconId == o.airplaneIconId;
         }
+    }
 
-        // the phone icon on phones
-        if (mLastPhoneSignalIconId != mPhoneSignalIconId) {
-            mLastPhoneSignalIconId = mPhoneSignalIconId;
-            N = mPhoneSignalIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mPhoneSignalIconViews.get(i);
-                if (mPhoneSignalIconId == 0) {
-                    v.setVisibility(View.GONE);
-                } else {
-                    v.setVisibility(View.VISIBLE);
-                    v.setImageResource(mPhoneSignalIconId);
-                    v.setContentDescription(mContentDescriptionPhoneSignal);
-                }
+    /**
+     * Updates the view groups whose values differ between 'state' and
+     * 'last', or all of them if 'last' is null.  Returns whether anything
+     * was touched.
+     */
+    private boolean applyViewState(ViewState state, ViewState last) {
+        int groups = 0;
+
+        if (last == null || !state.sameSignalCluster(last)) {
+            for (SignalCluster cluster : mSignalClusters) {
+                refreshSignalCluster(cluster);
             }
+            groups++;
+        }
+
+        // the phone icon on phones
+        if (last == null || state.phoneSignalIconId != last.phoneSignalIconId
+                || !TextUtils.equals(state.phoneSignalDescription, last.phoneSignalDescription)) {
+            applyIcon(mPhoneSignalIconViews, state.phoneSignalIconId,
+                    state.phoneSignalDescription, true);
+            groups++;
         }
 
         // the data icon on phones
-        if (mLastDataDirectionIconId != mDataDirectionIconId) {
-            mLastDataDirectionIconId = mDataDirectionIconId;
-            N = mDataDirectionIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mDataDirectionIconViews.get(i);
-                v.setImageResource(mDataDirectionIconId);
-                v.setContentDescription(mContentDescriptionDataType);
-            }
+        if (last == null || state.dataDirectionIconId != last.dataDirectionIconId
+                || !TextUtils.equals(state.dataTypeDescription, last.dataTypeDescription)) {
+            applyIcon(mDataDirectionIconViews, state.dataDirectionIconId,
+                    state.dataTypeDescription, false);
+            groups++;
         }
 
         // the wifi icon on phones
-        if (mLastWifiIconId != mWifiIconId) {
-            mLastWifiIconId = mWifiIconId;
-            N = mWifiIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mWifiIconViews.get(i);
-                if (mWifiIconId == 0) {
-                    v.setVisibility(View.GONE);
-                } else {
-                    v.setVisibility(View.VISIBLE);
-                    v.setImageResource(mWifiIconId);
-                    v.setContentDescription(mContentDescriptionWifi);
-                }
-            }
+        if (last == null || state.wifiIconId != last.wifiIconId
+                || !TextUtils.equals(state.wifiDescription, last.wifiDescription)) {
+            applyIcon(mWifiIconViews, state.wifiIconId, state.wifiDescription, true);
+            groups++;
         }
 
         // the wimax icon on phones
-        if (mLastWimaxIconId != mWimaxIconId) {
-            mLastWimaxIconId = mWimaxIconId;
-            N = mWimaxIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mWimaxIconViews.get(i);
-                if (mWimaxIconId == 0) {
-                    v.setVisibility(View.GONE);
-                } else {
-                    v.setVisibility(View.VISIBLE);
-                    v.setImageResource(mWimaxIconId);
-                    v.setContentDescription(mContentDescriptionWimax);
-                }
-           }
+        if (last == null || state.wimaxIconId != last.wimaxIconId
+                || !TextUtils.equals(state.wimaxDescription, last.wimaxDescription)) {
+            applyIcon(mWimaxIconViews, state.wimaxIconId, state.wimaxDescription, true);
+            groups++;
         }
+
         // the combined data signal icon
-        if (mLastCombinedSignalIconId != combinedSignalIconId) {
-            mLastCombinedSignalIconId = combinedSignalIconId;
-            N = mCombinedSignalIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mCombinedSignalIconViews.get(i);
-                v.setImageResource(combinedSignalIconId);
-                v.setContentDescription(mContentDescriptionCombinedSignal);
-            }
+        if (last == null || state.combinedSignalIconId != last.combinedSignalIconId
+                || !TextUtils.equals(state.combinedSignalDescription,
+                        last.combinedSignalDescription)) {
+            applyIcon(mCombinedSignalIconViews, state.combinedSignalIconId,
+                    state.combinedSignalDescription, false);
+            groups++;
         }
 
         // the data network type overlay
-        if (mLastDataTypeIconId != mDataTypeIconId) {
-            mLastDataTypeIconId = mDataTypeIconId;
-            N = mDataTypeIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mDataTypeIconViews.get(i);
-                if (mDataTypeIconId == 0) {
-                    v.setVisibility(View.GONE);
-                } else {
-                    v.setVisibility(View.VISIBLE);
-                    v.setImageResource(mDataTypeIconId);
-                    v.setContentDescription(mContentDescriptionDataType);
-                }
-            }
+        if (last == null || state.dataTypeIconId != last.dataTypeIconId
+                || !TextUtils.equals(state.dataTypeDescription, last.dataTypeDescription)) {
+            applyIcon(mDataTypeIconViews, state.dataTypeIconId, state.dataTypeDescription, true);
+            groups++;
         }
 
         // the data direction overlay
-        if (mLastDataDirectionOverlayIconId != combinedActivityIconId) {
+        if (last == null || state.combinedActivityIconId != last.combinedActivityIconId
+                || !TextUtils.equals(state.dataTypeDescription, last.dataTypeDescription)) {
             if (DEBUG) {
-                Slog.d(TAG, "changing data overlay icon id to " + combinedActivityIconId);
-            }
-            mLastDataDirectionOverlayIconId = combinedActivityIconId;
-            N = mDataDirectionOverlayIconViews.size();
-            for (int i=0; i<N; i++) {
-                final ImageView v = mDataDirectionOverlayIconViews.get(i);
-                if (combinedActivityIconId == 0) {
-                    v.setVisibility(View.GONE);
-                } else {
-                    v.setVisibility(View.VISIBLE);
-                    v.setImageResource(combinedActivityIconId);
-                    v.setContentDescription(mContentDescriptionDataType);
-                }
+                Slog.d(TAG, "changing data overlay icon id to " + state.combinedActivityIconId);
             }
+            applyIcon(mDataDirectionOverlayIconViews, state.combinedActivityIconId,
+                    state.dataTypeDescription, true);
+            groups++;
         }
 
         // the combinedLabel in the notification panel
-        if (!mLastCombinedLabel.equals(combinedLabel)) {
-            mLastCombinedLabel = combinedLabel;
-            N = mCombinedLabelViews.size();
+        if (last == null || !state.combinedLabel.equals(last.combinedLabel)) {
+            final int N = mCombinedLabelViews.size();
             for (int i=0; i<N; i++) {
-                TextView v = mCombinedLabelViews.get(i);
-                v.setText(combinedLabel);
+                mCombinedLabelViews.get(i).setText(state.combinedLabel);
             }
+            groups++;
         }
 
         // wifi label
-        N = mWifiLabelViews.size();
-        for (int i=0; i<N; i++) {
-            TextView v = mWifiLabelViews.get(i);
-            v.setText(wifiLabel);
-            if ("".equals(wifiLabel)) {
-                v.setVisibility(View.GONE);
-            } else {
-                v.setVisibility(View.VISIBLE);
+        if (last == null || !state.wifiLabel.equals(last.wifiLabel)) {
+            final int N = mWifiLabelViews.size();
+            for (int i=0; i<N; i++) {
+                applyLabel(mWifiLabelViews.get(i), state.wifiLabel);
             }
+            groups++;
         }
 
         // mobile label
-        N = mMobileLabelViews.size();
-        for (int i=0; i<N; i++) {
-            TextView v = mMobileLabelViews.get(i);
-            if(!(v instanceof CarrierLabel)){
-            	v.setText(mobileLabel);
-            	if ("".equals(mobileLabel)) {
-            		v.setVisibility(View.GONE);
-            	} else {
-            		v.setVisibility(View.VISIBLE);
-            	}
+        if (last == null || !state.mobileLabel.equals(last.mobileLabel)) {
+            final int N = mMobileLabelViews.size();
+            for (int i=0; i<N; i++) {
+                TextView v = mMobileLabelViews.get(i);
+                if (!(v instanceof CarrierLabel)) {
+                    applyLabel(v, state.mobileLabel);
+                }
             }
+            groups++;
         }
-		        // e-call label
-        N = mEmergencyLabelViews.size();
+
+        // e-call label
+        if (last == null || state.emergencyOnly != last.emergencyOnly
+                || (state.emergencyOnly && !state.mobileLabel.equals(last.mobileLabel))) {
+            final int N = mEmergencyLabelViews.size();
+            for (int i=0; i<N; i++) {
+                TextView v = mEmergencyLabelViews.get(i);
+                if (!state.emergencyOnly) {
+                    v.setVisibility(View.GONE);
+                } else {
+                    v.setText(state.mobileLabel); // comes from the telephony stack
+                    v.setVisibility(View.VISIBLE);
+                }
+            }
+            groups++;
+        }
+
+        mGroupUpdates += groups;
+        return groups > 0;
+    }
+
+    private static void applyIcon(ArrayList<ImageView> views, int iconId, String description,
+            boolean hideWhenNone) {
+        final int N = views.size();
         for (int i=0; i<N; i++) {
-            TextView v = mEmergencyLabelViews.get(i);
-            if (!emergencyOnly) {
+            final ImageView v = views.get(i);
+            if (hideWhenNone && iconId == 0) {
                 v.setVisibility(View.GONE);
             } else {
-                v.setText(mobileLabel); // comes from the telephony stack
-                v.setVisibility(View.VISIBLE);
+                if (hideWhenNone) {
+                    v.setVisibility(View.VISIBLE);
+                }
+                v.setImageResource(iconId);
+                v.setContentDescription(description);
             }
         }
+    }
 
+    private static void applyLabel(TextView v, String label) {
+        v.setText(label);
+        if ("".equals(label)) {
+            v.setVisibility(View.GONE);
+        } else {
+            v.setVisibility(View.VISIBLE);
+        }
     }
 
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
@@ -1358,33 +1533,49 @@ public class NetworkController extends BroadcastReceiver {
         pw.println(mInetCondition);
 
         pw.println("  - icons ------");
-        pw.print("  mLastPhoneSignalIconId=0x");
-        pw.print(Integer.toHexString(mLastPhoneSignalIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastPhoneSignalIconId));
-        pw.print("  mLastDataDirectionIconId=0x");
-        pw.print(Integer.toHexString(mLastDataDirectionIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastDataDirectionIconId));
-        pw.print("  mLastDataDirectionOverlayIconId=0x");
-        pw.print(Integer.toHexString(mLastDataDirectionOverlayIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastDataDirectionOverlayIconId));
-        pw.print("  mLastWifiIconId=0x");
-        pw.print(Integer.toHexString(mLastWifiIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastWifiIconId));
-        pw.print("  mLastCombinedSignalIconId=0x");
-        pw.print(Integer.toHexString(mLastCombinedSignalIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastCombinedSignalIconId));
-        pw.print("  mLastDataTypeIconId=0x");
-        pw.print(Integer.toHexString(mLastDataTypeIconId));
-        pw.print("/");
-        pw.println(getResourceName(mLastDataTypeIconId));
-        pw.print("  mLastCombinedLabel=");
-        pw.print(mLastCombinedLabel);
-        pw.println("");
+        final ViewState state = mLastViewState;
+        if (state != null) {
+            pw.print("  phoneSignalIconId=0x");
+            pw.print(Integer.toHexString(state.phoneSignalIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.phoneSignalIconId));
+            pw.print("  dataDirectionIconId=0x");
+            pw.print(Integer.toHexString(state.dataDirectionIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.dataDirectionIconId));
+            pw.print("  combinedActivityIconId=0x");
+            pw.print(Integer.toHexString(state.combinedActivityIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.combinedActivityIconId));
+            pw.print("  wifiIconId=0x");
+            pw.print(Integer.toHexString(state.wifiIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.wifiIconId));
+            pw.print("  combinedSignalIconId=0x");
+            pw.print(Integer.toHexString(state.combinedSignalIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.combinedSignalIconId));
+            pw.print("  dataTypeIconId=0x");
+            pw.print(Integer.toHexString(state.dataTypeIconId));
+            pw.print("/");
+            pw.println(getResourceName(state.dataTypeIconId));
+            pw.print("  combinedLabel=");
+            pw.print(state.combinedLabel);
+            pw.println("");
+        }
+        pw.print("  refreshes=");
+        pw.print(mRefreshes);
+        pw.print(" changed=");
+        pw.print(mChangedRefreshes);
+        pw.print(" groupUpdates=");
+        pw.println(mGroupUpdates);
+        pw.print("  throttledRequests=");
+        pw.print(mThrottledRequests);
+        pw.print(" refreshesLastMinute=");
+        pw.print(getRefreshesInLastMinute());
+        pw.print(" lowPriorityInterval=");
+        pw.print(mLowPriorityRefreshInterval);
+        pw.println("ms");
     }
 
     private String getResourceName(int resId) {
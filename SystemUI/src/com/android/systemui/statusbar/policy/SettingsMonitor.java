@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.policy;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.Slog;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A snapshot of the Settings.System values that SystemUI reacts to, shared by
+ * everything in the process.
+ *
+ * Components register a {@link Listener} for the keys they depend on instead
+ * of a ContentObserver of their own.  A single observer watches the whole
+ * table, so a change to the table as a whole (after a restore, say) arrives
+ * once rather than once per key.  When a key changes only that key is read
+ * again, and its listeners are called only if the value really is different.
+ * Reads of the current values go to the snapshot instead of the settings
+ * provider.  The first values of newly watched keys are fetched with a single
+ * batched call.
+ *
+ * Only used from the main thread.
+ */
+public class SettingsMonitor {
+    private static final String TAG = "StatusBar.SettingsMonitor";
+    private static final boolean DEBUG = false;
+
+    // SettingsProvider's batched lookup: returns a Bundle of name -> value
+    // for every name in the "names" string array.
+    private static final String CALL_METHOD_GET_SYSTEM_BATCH = "GET_system_batch";
+    private static final String CALL_EXTRA_NAMES = "names";
+
+    public interface Listener {
+        /**
+         * Called on the main thread after the value of 'key' has changed;
+         * the new value is already available from the monitor.
+         */
+        public void onSettingChanged(String key);
+    }
+
+    private static SettingsMonitor sInstance;
+
+    public static SettingsMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    // The current value of every key that has listeners.
+    private final HashMap<String, String> mValues = new HashMap<String, String>();
+    private final HashMap<String, ArrayList<Listener>> mListeners =
+            new HashMap<String, ArrayList<Listener>>();
+    // Whether the observer is registered for the table; done on first use.
+    private boolean mObserving;
+
+    private int mNotifications;
+    private int mReads;
+    private int mBatchReads;
+    private int mUnchanged;
+    private int mDispatches;
+
+    private final ContentObserver mObserver;
+
+    private SettingsMonitor(Context context) {
+        mResolver = context.getContentResolver();
+        mObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onSettingsChanged(uri);
+            }
+        };
+    }
+
+    /**
+     * Calls 'listener' whenever one of 'keys' changes.
+     */
+    public void addListener(Listener listener, String... keys) {
+        // Observe before reading, so that no change can fall in between.
+        // Notifications for keys nobody listens to are dropped in
+        // onSettingsChanged().
+        if (!mObserving) {
+            mResolver.registerContentObserver(Settings.System.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        ArrayList<String> unknown = null;
+        for (String key : keys) {
+            ArrayList<Listener> listeners = mListeners.get(key);
+            if (listeners == null) {
+                listeners = new ArrayList<Listener>();
+                mListeners.put(key, listeners);
+            }
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+            if (!mValues.containsKey(key)) {
+                if (unknown == null) {
+                    unknown = new ArrayList<String>();
+                }
+                unknown.add(key);
+            }
+        }
+        if (unknown != null) {
+            mValues.putAll(read(unknown));
+        }
+    }
+
+    /**
+     * Stops calling 'listener' for any key.
+     */
+    public void removeListener(Listener listener) {
+        ArrayList<String> unused = new ArrayList<String>();
+        for (String key : mListeners.keySet()) {
+            ArrayList<Listener> listeners = mListeners.get(key);
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                unused.add(key);
+            }
+        }
+        for (String key : unused) {
+            // Nobody will know when it changes, so it can't be kept.
+            mListeners.remove(key);
+            mValues.remove(key);
+        }
+    }
+
+    public String getString(String key) {
+        if (mValues.containsKey(key)) {
+            return mValues.get(key);
+        }
+        // Not watched, so the snapshot can't vouch for it.
+        return Settings.System.getString(mResolver, key);
+    }
+
+    public String getString(String key, String def) {
+        final String value = getString(key);
+        return value != null ? value : def;
+    }
+
+    public int getInt(String key, int def) {
+        final String value = getString(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        return getInt(key, def ? 1 : 0) != 0;
+    }
+
+    private void onSettingsChanged(Uri uri) {
+        mNotifications++;
+        final String key = keyFor(uri);
+        final List<String> keys;
+        if (key != null) {
+            if (!mListeners.containsKey(key)) {
+                return;
+            }
+            keys = new ArrayList<String>(1);
+            keys.add(key);
+        } else {
+            // The whole table changed, as after a restore.
+            keys = new ArrayList<String>(mListeners.keySet());
+        }
+
+        final HashMap<String, String> values = read(keys);
+        for (String k : keys) {
+            final String value = values.get(k);
+            if (TextUtils.equals(value, mValues.get(k))) {
+                mUnchanged++;
+                continue;
+            }
+            mValues.put(k, value);
+            dispatch(k);
+        }
+    }
+
+    private void dispatch(String key) {
+        if (DEBUG) Slog.d(TAG, "changed: " + key + "=" + mValues.get(key));
+        // A listener may add or remove listeners while it is called.
+        final ArrayList<Listener> listeners = new ArrayList<Listener>(mListeners.get(key));
+        for (Listener listener : listeners) {
+            mDispatches++;
+            listener.onSettingChanged(key);
+        }
+    }
+
+    // Returns the setting a Settings.System.getUriFor() uri is for, or null
+    // if the uri is for the whole table.
+    private static String keyFor(Uri uri) {
+        if (uri == null) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !"system".equals(segments.get(0))) {
+            return null;
+        }
+        return segments.get(1);
+    }
+
+    private HashMap<String, String> read(List<String> keys) {
+        final HashMap<String, String> values = new HashMap<String, String>(keys.size() * 2);
+        Bundle batch = null;
+        if (keys.size() > 1) {
+            final Bundle args = new Bundle();
+            args.putStringArray(CALL_EXTRA_NAMES, keys.toArray(new String[keys.size()]));
+            try {
+                batch = mResolver.call(Settings.System.CONTENT_URI,
+                        CALL_METHOD_GET_SYSTEM_BATCH, null, args);
+                mBatchReads++;
+            } catch (RuntimeException e) {
+                Slog.w(TAG, "batched settings read failed; reading one at a time", e);
+            }
+        }
+        for (String key : keys) {
+            if (batch != null && batch.containsKey(key)) {
+                values.put(key, batch.getString(key));
+            } else {
+                values.put(key, Settings.System.getString(mResolver, key));
+                mReads++;
+            }
+        }
+        return values;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.print("  SettingsMonitor: keys="); pw.print(mListeners.size());
+        pw.print(" observing="); pw.println(mObserving);
+        pw.print("    notifications="); pw.print(mNotifications);
+        pw.print(" unchanged="); pw.print(mUnchanged);
+        pw.print(" dispatches="); pw.print(mDispatches);
+        pw.print(" reads="); pw.print(mReads);
+        pw.print(" batchReads="); pw.println(mBatchReads);
+    }
+}
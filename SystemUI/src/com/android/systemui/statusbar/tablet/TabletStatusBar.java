@@ -397,6 +397,7 @@ public class TabletStatusBar extends BaseStatusBar implements
 
     @Override
     protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
         loadDimens();
         mNotificationPanelParams.height = getNotificationPanelHeight();
         WindowManagerImpl.getDefault().updateViewLayout(mNotificationPanel,
@@ -873,7 +874,8 @@ public class TabletStatusBar extends BaseStatusBar implements
         if (DEBUG) Slog.d(TAG, "removeIcon(" + slot + ")");
     }
 
-    public void addNotification(IBinder key, StatusBarNotification notification) {
+    @Override
+    protected void addPreparedNotification(IBinder key, StatusBarNotification notification) {
         if (DEBUG) Slog.d(TAG, "addNotification(" + key + " -> " + notification + ")");
         addNotificationViews(key, notification);
 
@@ -897,6 +899,7 @@ public class TabletStatusBar extends BaseStatusBar implements
 
     public void removeNotification(IBinder key) {
         if (DEBUG) Slog.d(TAG, "removeNotification(" + key + ")");
+        if (mInflater.cancel(key)) return;
         removeNotificationViews(key);
         mTicker.remove(key);
         setAreThereNotifications();
@@ -1544,25 +1547,11 @@ public class TabletStatusBar extends BaseStatusBar implements
             }
         }
 
-        ArrayList<View> toRemove = new ArrayList<View>();
-        for (int i=0; i<mIconLayout.getChildCount(); i++) {
-            View child = mIconLayout.getChildAt(i);
-            if (!toShow.contains(child)) {
-                toRemove.add(child);
-            }
-        }
-
-        for (View remove : toRemove) {
-            mIconLayout.removeView(remove);
-        }
-
         for (int i=0; i<toShow.size(); i++) {
-            View v = toShow.get(i);
-            v.setPadding(mIconHPadding, 0, mIconHPadding, 0);
-            if (v.getParent() == null) {
-                mIconLayout.addView(v, i, params);
-            }
+            toShow.get(i).setPadding(mIconHPadding, 0, mIconHPadding, 0);
         }
+
+        mIconReconciler.reconcile(mIconLayout, toShow, params);
     }
 
     private void loadNotificationPanel() {
@@ -1571,33 +1560,17 @@ public class TabletStatusBar extends BaseStatusBar implements
         ArrayList<View> toShow = new ArrayList<View>();
 
         final boolean provisioned = isDeviceProvisioned();
-        // If the device hasn't been through Setup, we only show system notifications
+        // If the device hasn't been through Setup, we only show system notifications.
+        // The notification panel has the most important things at the bottom, so
+        // unlike the icons this walks the data from least to most important.
         for (int i=0; i<N; i++) {
-            Entry ent = mNotificationData.get(N-i-1);
+            Entry ent = mNotificationData.get(i);
             if (provisioned || showNotificationEvenIfUnprovisioned(ent.notification)) {
                 toShow.add(ent.row);
             }
         }
 
-        ArrayList<View> toRemove = new ArrayList<View>();
-        for (int i=0; i<mPile.getChildCount(); i++) {
-            View child = mPile.getChildAt(i);
-            if (!toShow.contains(child)) {
-                toRemove.add(child);
-            }
-        }
-
-        for (View remove : toRemove) {
-            mPile.removeView(remove);
-        }
-
-        for (int i=0; i<toShow.size(); i++) {
-            View v = toShow.get(i);
-            if (v.getParent() == null) {
-                // the notification panel has the most important things at the bottom
-                mPile.addView(v, Math.min(toShow.size()-1-i, mPile.getChildCount()));
-            }
-        }
+        mPileReconciler.reconcile(mPile, toShow, null);
 
         mNotificationPanel.setNotificationCount(toShow.size());
         mNotificationPanel.setSettingsEnabled(isDeviceProvisioned());
@@ -1652,6 +1625,11 @@ public class TabletStatusBar extends BaseStatusBar implements
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
         pw.print("mDisabled=0x");
         pw.println(Integer.toHexString(mDisabled));
+        mPileReconciler.dump(pw);
+        mIconReconciler.dump(pw);
+        mInflater.dump(pw);
+        mNotificationPolicies.dump(pw);
+        mSettings.dump(pw);
         pw.println("mNetworkController:");
         mNetworkController.dump(fd, pw, args);
     }
@@ -21,6 +21,9 @@ LOCAL_SRC_FILES := $(call all-java-files-under, src)
 
 LOCAL_JAVA_LIBRARIES := android.test.runner
 
+# The status bar tests run inside SystemUI and use its classes.
+LOCAL_INSTRUMENTATION_FOR := SystemUI
+
 LOCAL_PACKAGE_NAME := SystemUITests
 
 # sign this with platform cert, so this test is allowed to inject key events into
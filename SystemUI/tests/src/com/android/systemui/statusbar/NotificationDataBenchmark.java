@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark for the update churn NotificationData sees with many ongoing
+ * notifications: each update looks up an entry by key, removes it and adds it
+ * back with a new when, as BaseStatusBar.updateNotification() does.
+ */
+@LargeTest
+public class NotificationDataBenchmark extends AndroidTestCase {
+    private static final String TAG = "NotificationDataBenchmark";
+
+    private static final int UPDATES = 20000;
+
+    public void testUpdateChurn10() {
+        runChurn(10);
+    }
+
+    public void testUpdateChurn100() {
+        runChurn(100);
+    }
+
+    public void testUpdateChurn1000() {
+        runChurn(1000);
+    }
+
+    private void runChurn(int size) {
+        final NotificationData data = new NotificationData();
+        final IBinder[] keys = new IBinder[size];
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            keys[i] = new Binder();
+            data.add(NotificationDataTest.makeEntry(keys[i], random.nextInt(3) * 10,
+                    random.nextLong()));
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            final IBinder key = keys[random.nextInt(size)];
+            final NotificationData.Entry old = data.findByKey(key);
+            assertNotNull(old);
+            data.remove(key);
+            data.add(NotificationDataTest.makeEntry(key, old.notification.score,
+                    random.nextLong()));
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        Log.i(TAG, size + " entries: " + (elapsed / UPDATES) + " ns/update");
+        assertEquals(size, data.size());
+        NotificationDataTest.assertSorted(data);
+    }
+}
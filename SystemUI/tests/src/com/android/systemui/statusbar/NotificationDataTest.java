@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar;
+
+import android.app.Notification;
+import android.os.Binder;
+import android.os.IBinder;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.statusbar.StatusBarNotification;
+
+import java.util.Random;
+
+/**
+ * Tests that NotificationData keeps its entries sorted by score, then by
+ * when, and indexed by key.
+ */
+@SmallTest
+public class NotificationDataTest extends AndroidTestCase {
+    public void testOrderingSurvivesLargeWhenDeltas() {
+        NotificationData data = new NotificationData();
+        data.add(makeEntry(new Binder(), 0, Long.MAX_VALUE));
+        data.add(makeEntry(new Binder(), 0, Long.MIN_VALUE));
+        data.add(makeEntry(new Binder(), 0, 0));
+        assertSorted(data);
+    }
+
+    public void testReorderAfterInPlaceUpdate() {
+        final int size = 50;
+        final NotificationData data = new NotificationData();
+        final IBinder[] keys = new IBinder[size];
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            keys[i] = new Binder();
+            data.add(makeEntry(keys[i], random.nextInt(3) * 10, random.nextLong()));
+        }
+
+        // Change score or when in place, as BaseStatusBar.updateNotification()
+        // does when it reuses the views, without removing the entry first.
+        for (int i = 0; i < 200; i++) {
+            final IBinder key = keys[random.nextInt(size)];
+            final NotificationData.Entry entry = data.findByKey(key);
+            final StatusBarNotification old = entry.notification;
+            entry.notification = (i % 2 == 0)
+                    ? makeNotification(random.nextInt(3) * 10, old.notification.when)
+                    : makeNotification(old.score, random.nextLong());
+
+            final int index = data.reorder(key);
+            assertSame(entry, data.get(index));
+            assertSame(entry, data.findByKey(key));
+            assertEquals(size, data.size());
+            assertSorted(data);
+        }
+
+        for (int i = 0; i < size; i++) {
+            final NotificationData.Entry entry = data.findByKey(keys[i]);
+            assertNotNull(entry);
+            assertSame(entry, data.remove(keys[i]));
+            assertNull(data.findByKey(keys[i]));
+            assertEquals(size - i - 1, data.size());
+            for (int j = 0; j < data.size(); j++) {
+                assertNotSame(entry, data.get(j));
+            }
+            assertSorted(data);
+        }
+    }
+
+    public void testReorderUnknownKey() {
+        NotificationData data = new NotificationData();
+        data.add(makeEntry(new Binder(), 0, 0));
+        assertEquals(-1, data.reorder(new Binder()));
+        assertEquals(1, data.size());
+    }
+
+    static NotificationData.Entry makeEntry(IBinder key, int score, long when) {
+        return new NotificationData.Entry(key, makeNotification(score, when), null);
+    }
+
+    static StatusBarNotification makeNotification(int score, long when) {
+        Notification n = new Notification();
+        n.when = when;
+        return new StatusBarNotification("com.android.systemui.tests", 0, null, 0, 0, score, n);
+    }
+
+    static void assertSorted(NotificationData data) {
+        for (int i = 1; i < data.size(); i++) {
+            StatusBarNotification a = data.get(i - 1).notification;
+            StatusBarNotification b = data.get(i).notification;
+            assertTrue(a.score < b.score
+                    || (a.score == b.score && a.notification.when <= b.notification.when));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.tests;
+
+import android.test.InstrumentationTestRunner;
+
+/**
+ * Test runner that targets the SystemUI package itself, so that tests of
+ * SystemUI's internal classes run in its process.  It only exists because
+ * each instrumentation in a package needs its own class name.
+ */
+public class SystemUIInstrumentationTestRunner extends InstrumentationTestRunner {
+}
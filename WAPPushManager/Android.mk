@@ -7,6 +7,8 @@ include $(CLEAR_VARS)
 LOCAL_MODULE_TAGS := optional
 
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
+LOCAL_SRC_FILES += \
+        src/com/android/smspush/IWapPushBatchManager.aidl
 
 LOCAL_PACKAGE_NAME := WAPPushManager
 
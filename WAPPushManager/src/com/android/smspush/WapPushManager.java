@@ -18,14 +18,19 @@ package com.android.smspush;
 
 import android.app.Service;
 import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ComponentInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
@@ -33,6 +38,13 @@ import android.util.Log;
 import com.android.internal.telephony.IWapPushManager;
 import com.android.internal.telephony.WapPushManagerParams;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
 /**
  * The WapPushManager service is implemented to process incoming
  * WAP Push messages and to maintain the Receiver Application/Application
@@ -52,14 +64,35 @@ public class WapPushManager extends Service {
     private static final String LOG_TAG = "WAP PUSH";
     private static final String DATABASE_NAME = "wappush.db";
     private static final String APPID_TABLE_NAME = "appid_tbl";
+    private static final String APPID_INDEX_NAME = "appid_route_idx";
 
     /**
-     * Version number must be incremented when table structure is changed.
+     * Version number must be incremented when table structure is changed,
+     * with a step in onUpgrade() that takes the previous version to it.
+     * 1: appid_tbl
+     * 2: appid_route_idx
      */
-    private static final int WAP_PUSH_MANAGER_VERSION = 1;
+    private static final int WAP_PUSH_MANAGER_VERSION = 2;
     private static final boolean DEBUG_SQL = false;
     private static final boolean LOCAL_LOGV = false;
 
+    /**
+     * Boolean meta-data of a receiver activity or service that accepts several
+     * messages in one intent from IWapPushBatchManager.processMessages().
+     */
+    public static final String META_DATA_BATCH = "com.android.smspush.BATCH";
+
+    /**
+     * Extra of a batch intent: the Intent[] of the messages, in order.  The
+     * batch intent itself is a copy of the first of them.
+     */
+    public static final String EXTRA_BATCH_INTENTS = "com.android.smspush.extra.BATCH_INTENTS";
+
+    // What the package manager knows of a receiver component.
+    private static final int RECEIVER_MISSING = 0;
+    private static final int RECEIVER_FOUND = 1;
+    private static final int RECEIVER_BATCH = 2;
+
     /**
      * Inner class that deals with application ID table
      */
@@ -69,6 +102,11 @@ public class WapPushManager extends Service {
             if (LOCAL_LOGV) Log.v(LOG_TAG, "helper instance created.");
         }
 
+        // Compiled on first use; they live as long as the open database.
+        private SQLiteStatement mInsertStatement;
+        private SQLiteStatement mUpdateStatement;
+        private SQLiteStatement mDeleteStatement;
+
         @Override
         public void onCreate(SQLiteDatabase db) {
             if (LOCAL_LOGV) Log.v(LOG_TAG, "db onCreate.");
@@ -86,18 +124,57 @@ public class WapPushManager extends Service {
 
             if (DEBUG_SQL) Log.v(LOG_TAG, "sql: " + sql);
             db.execSQL(sql);
+            createRouteIndex(db);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db,
                     int oldVersion, int newVersion) {
-            // TODO: when table structure is changed, need to dump and restore data.
-            /*
-              db.execSQL(
-              "drop table if exists "+APPID_TABLE_NAME);
-              onCreate(db);
-            */
-            Log.w(LOG_TAG, "onUpgrade is not implemented yet. do nothing.");
+            if (LOCAL_LOGV) Log.v(LOG_TAG, "db onUpgrade " + oldVersion + " to " + newVersion);
+            // Each step keeps the existing rows; onUpgrade runs in a transaction.
+            if (oldVersion < 2) {
+                createRouteIndex(db);
+            }
+        }
+
+        /**
+         * The lookup of queryLastApp() as an index: the latest install_order
+         * of an application ID and content type is the last entry of its
+         * range, and the remaining columns make it a covering index so that
+         * the table itself is never read.
+         */
+        private void createRouteIndex(SQLiteDatabase db) {
+            String sql = "CREATE INDEX IF NOT EXISTS " + APPID_INDEX_NAME
+                    + " ON " + APPID_TABLE_NAME + " ("
+                    + "x_wap_application, "
+                    + "content_type, "
+                    + "install_order, "
+                    + "package_name, "
+                    + "class_name, "
+                    + "app_type, "
+                    + "need_signature, "
+                    + "further_processing"
+                    + ")";
+
+            if (DEBUG_SQL) Log.v(LOG_TAG, "sql: " + sql);
+            db.execSQL(sql);
+        }
+
+        @Override
+        public synchronized void close() {
+            closeStatement(mInsertStatement);
+            closeStatement(mUpdateStatement);
+            closeStatement(mDeleteStatement);
+            mInsertStatement = null;
+            mUpdateStatement = null;
+            mDeleteStatement = null;
+            super.close();
+        }
+
+        private void closeStatement(SQLiteStatement statement) {
+            if (statement != null) {
+                statement.close();
+            }
         }
 
         protected class queryData {
@@ -107,6 +184,17 @@ public class WapPushManager extends Service {
             int needSignature;
             int furtherProcessing;
             int installOrder;
+            private ComponentName component;
+
+            /**
+             * The receiver component, created once per route.
+             */
+            ComponentName getComponent() {
+                if (component == null) {
+                    component = new ComponentName(packageName, className);
+                }
+                return component;
+            }
         }
 
         /**
@@ -120,21 +208,136 @@ public class WapPushManager extends Service {
             String sql = "select install_order, package_name, class_name, "
                     + " app_type, need_signature, further_processing"
                     + " from " + APPID_TABLE_NAME
-                    + " where x_wap_application=\'" + app_id + "\'"
-                    + " and content_type=\'" + content_type + "\'"
-                    + " order by install_order desc";
+                    + " where x_wap_application=? and content_type=?"
+                    + " order by install_order desc limit 1";
             if (DEBUG_SQL) Log.v(LOG_TAG, "sql: " + sql);
-            Cursor cur = db.rawQuery(sql, null);
+            // String.valueOf() keeps the old quoted-literal behaviour for null IDs.
+            Cursor cur = db.rawQuery(sql, new String[] {
+                    String.valueOf(app_id), String.valueOf(content_type) });
             queryData ret = null;
 
             if (cur.moveToNext()) {
                 ret = new queryData();
-                ret.installOrder = cur.getInt(cur.getColumnIndex("install_order"));
-                ret.packageName = cur.getString(cur.getColumnIndex("package_name"));
-                ret.className = cur.getString(cur.getColumnIndex("class_name"));
-                ret.appType = cur.getInt(cur.getColumnIndex("app_type"));
-                ret.needSignature = cur.getInt(cur.getColumnIndex("need_signature"));
-                ret.furtherProcessing = cur.getInt(cur.getColumnIndex("further_processing"));
+                ret.installOrder = cur.getInt(0);
+                ret.packageName = cur.getString(1);
+                ret.className = cur.getString(2);
+                ret.appType = cur.getInt(3);
+                ret.needSignature = cur.getInt(4);
+                ret.furtherProcessing = cur.getInt(5);
+            }
+            cur.close();
+            return ret;
+        }
+
+        /**
+         * Insert a receiver application with the supplied install order.
+         */
+        protected synchronized void insertApp(SQLiteDatabase db,
+                String app_id, String content_type,
+                String package_name, String class_name,
+                int app_type, boolean need_signature, boolean further_processing,
+                int install_order) {
+            if (mInsertStatement == null) {
+                mInsertStatement = db.compileStatement("insert into " + APPID_TABLE_NAME
+                        + " (x_wap_application, content_type, package_name, class_name,"
+                        + " app_type, need_signature, further_processing, install_order)"
+                        + " values (?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            SQLiteStatement st = mInsertStatement;
+            bindString(st, 1, app_id);
+            bindString(st, 2, content_type);
+            bindString(st, 3, package_name);
+            bindString(st, 4, class_name);
+            st.bindLong(5, app_type);
+            st.bindLong(6, need_signature ? 1 : 0);
+            st.bindLong(7, further_processing ? 1 : 0);
+            st.bindLong(8, install_order);
+            st.executeInsert();
+        }
+
+        /**
+         * Replace the receiver application registered with the supplied install order.
+         * Returns the number of rows updated.
+         */
+        protected synchronized int updateApp(SQLiteDatabase db,
+                String app_id, String content_type,
+                String package_name, String class_name,
+                int app_type, boolean need_signature, boolean further_processing,
+                int install_order) {
+            if (mUpdateStatement == null) {
+                mUpdateStatement = db.compileStatement("update " + APPID_TABLE_NAME
+                        + " set package_name=?, class_name=?, app_type=?,"
+                        + " need_signature=?, further_processing=?"
+                        + " where x_wap_application=? and content_type=? and install_order=?");
+            }
+            SQLiteStatement st = mUpdateStatement;
+            bindString(st, 1, package_name);
+            bindString(st, 2, class_name);
+            st.bindLong(3, app_type);
+            st.bindLong(4, need_signature ? 1 : 0);
+            st.bindLong(5, further_processing ? 1 : 0);
+            st.bindString(6, String.valueOf(app_id));
+            st.bindString(7, String.valueOf(content_type));
+            st.bindLong(8, install_order);
+            return st.executeUpdateDelete();
+        }
+
+        /**
+         * Delete every registration of the receiver application.
+         * Returns the number of rows deleted.
+         */
+        protected synchronized int deleteApp(SQLiteDatabase db,
+                String app_id, String content_type,
+                String package_name, String class_name) {
+            if (mDeleteStatement == null) {
+                mDeleteStatement = db.compileStatement("delete from " + APPID_TABLE_NAME
+                        + " where x_wap_application=? and content_type=?"
+                        + " and package_name=? and class_name=?");
+            }
+            SQLiteStatement st = mDeleteStatement;
+            st.bindString(1, String.valueOf(app_id));
+            st.bindString(2, String.valueOf(content_type));
+            st.bindString(3, String.valueOf(package_name));
+            st.bindString(4, String.valueOf(class_name));
+            return st.executeUpdateDelete();
+        }
+
+        // Inserted values keep real NULLs, as ContentValues did.
+        private void bindString(SQLiteStatement st, int index, String value) {
+            if (value == null) {
+                st.bindNull(index);
+            } else {
+                st.bindString(index, value);
+            }
+        }
+
+        /**
+         * Query the latest receiver application info of every application ID and
+         * content type, keyed by routeKey().
+         */
+        protected HashMap<String, queryData> queryAllLastApps(SQLiteDatabase db) {
+            String sql = "select x_wap_application, content_type, install_order, "
+                    + " package_name, class_name, app_type, need_signature, further_processing"
+                    + " from " + APPID_TABLE_NAME;
+            if (DEBUG_SQL) Log.v(LOG_TAG, "sql: " + sql);
+            Cursor cur = db.rawQuery(sql, null);
+            HashMap<String, queryData> ret = new HashMap<String, queryData>();
+
+            while (cur.moveToNext()) {
+                String key = routeKey(cur.getString(0), cur.getString(1));
+                int installOrder = cur.getInt(2);
+                queryData last = ret.get(key);
+                if (last != null && last.installOrder >= installOrder) {
+                    continue;
+                }
+                queryData app = new queryData();
+                app.installOrder = installOrder;
+                app.packageName = cur.getString(3);
+                app.className = cur.getString(4);
+                app.appType = cur.getInt(5);
+                app.needSignature = cur.getInt(6);
+                app.furtherProcessing = cur.getInt(7);
+                ret.put(key, app);
             }
             cur.close();
             return ret;
@@ -142,27 +345,236 @@ public class WapPushManager extends Service {
 
     }
 
+    /**
+     * Counts processMessage() calls by how long they took.
+     */
+    private static class LatencyHistogram {
+        // Upper bound of each bucket, in microseconds; the last one is open.
+        private static final long[] BOUNDS_US = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000
+        };
+
+        private final long[] mCounts = new long[BOUNDS_US.length + 1];
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        synchronized void record(long nanos) {
+            final long us = nanos / 1000;
+            int i = 0;
+            while (i < BOUNDS_US.length && us >= BOUNDS_US[i]) {
+                i++;
+            }
+            mCounts[i]++;
+            mTotalNanos += nanos;
+            if (nanos > mMaxNanos) mMaxNanos = nanos;
+        }
+
+        synchronized void dump(PrintWriter pw) {
+            long count = 0;
+            for (long c : mCounts) {
+                count += c;
+            }
+            pw.print("  processMessage latency: count="); pw.print(count);
+            pw.print(" avg="); pw.print(count == 0 ? 0 : mTotalNanos / count / 1000);
+            pw.print("us max="); pw.print(mMaxNanos / 1000); pw.println("us");
+            for (int i = 0; i < mCounts.length; i++) {
+                pw.print("    ");
+                if (i < BOUNDS_US.length) {
+                    pw.print("<"); pw.print(BOUNDS_US[i]);
+                } else {
+                    pw.print(">="); pw.print(BOUNDS_US[i - 1]);
+                }
+                pw.print("us: "); pw.println(mCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Key of the routing table for an application ID and content type.
+     */
+    private static String routeKey(String app_id, String content_type) {
+        return app_id + "\u0000" + content_type;
+    }
+
     /**
      * The exported API implementations class
      */
     private class IWapPushManagerStub extends IWapPushManager.Stub {
         public Context mContext;
 
+        /**
+         * The latest receiver application of each application ID and content type.
+         * Loaded from the table on first use and updated by every change to it,
+         * so that processing a message never opens the database.
+         * Guarded by this stub, which also serializes the changes.
+         */
+        private HashMap<String, WapPushManDBHelper.queryData> mRoutes;
+
+        /**
+         * What the package manager said about the registered receivers, so that
+         * a steady stream of messages does not ask it again for each one.
+         * Entries of a package are dropped when it is added, replaced, changed
+         * or removed.  Guarded by mPackageLock.
+         */
+        private final Object mPackageLock = new Object();
+        private final HashMap<String, Boolean> mSignatureMatches = new HashMap<String, Boolean>();
+        private final HashMap<ComponentName, Integer> mReceivers =
+                new HashMap<ComponentName, Integer>();
+        // Bumped by every package change, so that an answer that was being
+        // looked up across one is not cached.
+        private int mPackageGeneration;
+        private int mPackageHits;
+        private int mPackageMisses;
+
+        // Guarded by this stub.
+        private int mBatches;
+        private int mBatchMessages;
+        private int mBatchStarts;
+
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+
         public IWapPushManagerStub() {
 
         }
 
+        /**
+         * Returns the latest receiver application for the application ID and
+         * content type, or null.
+         */
+        private synchronized WapPushManDBHelper.queryData getRoute(String app_id,
+                String content_type) {
+            if (mRoutes == null) {
+                WapPushManDBHelper dbh = getDatabase(mContext);
+                mRoutes = dbh.queryAllLastApps(dbh.getReadableDatabase());
+                if (LOCAL_LOGV) Log.v(LOG_TAG, "loaded " + mRoutes.size() + " routes");
+            }
+            return mRoutes.get(routeKey(app_id, content_type));
+        }
+
+        /**
+         * Brings the routing table in line with the table after a change to the
+         * rows of the application ID and content type.  Called with the lock held.
+         */
+        private void updateRoute(WapPushManDBHelper dbh, SQLiteDatabase db,
+                String app_id, String content_type) {
+            if (mRoutes == null) {
+                // Not loaded yet; will be read whole on first use.
+                return;
+            }
+            WapPushManDBHelper.queryData lastapp = dbh.queryLastApp(db, app_id, content_type);
+            if (lastapp == null) {
+                mRoutes.remove(routeKey(app_id, content_type));
+            } else {
+                mRoutes.put(routeKey(app_id, content_type), lastapp);
+            }
+        }
+
         /**
          * Compare the package signature with WapPushManager package
          */
         protected boolean signatureCheck(String package_name) {
+            final int generation;
+            synchronized (mPackageLock) {
+                Boolean cached = mSignatureMatches.get(package_name);
+                if (cached != null) {
+                    mPackageHits++;
+                    return cached;
+                }
+                mPackageMisses++;
+                generation = mPackageGeneration;
+            }
+
             PackageManager pm = mContext.getPackageManager();
             int match = pm.checkSignatures(mContext.getPackageName(), package_name);
 
             if (LOCAL_LOGV) Log.v(LOG_TAG, "compare signature " + mContext.getPackageName()
                     + " and " +  package_name + ", match=" + match);
 
-            return match == PackageManager.SIGNATURE_MATCH;
+            final boolean ret = match == PackageManager.SIGNATURE_MATCH;
+            synchronized (mPackageLock) {
+                if (generation == mPackageGeneration) {
+                    mSignatureMatches.put(package_name, ret);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Returns RECEIVER_MISSING if the package manager knows of no enabled
+         * receiver component of the app type, RECEIVER_BATCH if the component
+         * accepts batches and RECEIVER_FOUND otherwise.
+         */
+        protected int resolveReceiver(int app_type, ComponentName component) {
+            final int generation;
+            synchronized (mPackageLock) {
+                Integer cached = mReceivers.get(component);
+                if (cached != null) {
+                    mPackageHits++;
+                    return cached;
+                }
+                mPackageMisses++;
+                generation = mPackageGeneration;
+            }
+
+            PackageManager pm = mContext.getPackageManager();
+            int ret = RECEIVER_MISSING;
+            try {
+                ComponentInfo info;
+                if (app_type == WapPushManagerParams.APP_TYPE_ACTIVITY) {
+                    info = pm.getActivityInfo(component, PackageManager.GET_META_DATA);
+                } else {
+                    info = pm.getServiceInfo(component, PackageManager.GET_META_DATA);
+                }
+                if (info != null) {
+                    Bundle meta = info.metaData;
+                    ret = meta != null && meta.getBoolean(META_DATA_BATCH)
+                            ? RECEIVER_BATCH : RECEIVER_FOUND;
+                }
+            } catch (NameNotFoundException e) {
+                // RECEIVER_MISSING
+            }
+
+            synchronized (mPackageLock) {
+                if (generation == mPackageGeneration) {
+                    mReceivers.put(component, ret);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Forgets what was looked up about the package.
+         */
+        void onPackageChanged(String package_name) {
+            synchronized (mPackageLock) {
+                mPackageGeneration++;
+                mSignatureMatches.remove(package_name);
+                Iterator<ComponentName> it = mReceivers.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().getPackageName().equals(package_name)) {
+                        it.remove();
+                    }
+                }
+            }
+            if (LOCAL_LOGV) Log.v(LOG_TAG, "package changed: " + package_name);
+        }
+
+        void dumpState(PrintWriter pw) {
+            synchronized (this) {
+                pw.print("  routes=");
+                pw.println(mRoutes != null ? Integer.toString(mRoutes.size()) : "not loaded");
+                pw.print("  batches="); pw.print(mBatches);
+                pw.print(" batchMessages="); pw.print(mBatchMessages);
+                pw.print(" batchStarts="); pw.println(mBatchStarts);
+            }
+            synchronized (mPackageLock) {
+                pw.print("  signatures="); pw.print(mSignatureMatches.size());
+                pw.print(" receivers="); pw.print(mReceivers.size());
+                pw.print(" hits="); pw.print(mPackageHits);
+                pw.print(" misses="); pw.print(mPackageMisses);
+                pw.print(" packageChanges="); pw.println(mPackageGeneration);
+            }
+            mLatency.dump(pw);
         }
 
         /**
@@ -178,11 +590,29 @@ public class WapPushManager extends Service {
             throws RemoteException {
             Log.d(LOG_TAG, "wpman processMsg " + app_id + ":" + content_type);
 
-            WapPushManDBHelper dbh = getDatabase(mContext);
-            SQLiteDatabase db = dbh.getReadableDatabase();
-            WapPushManDBHelper.queryData lastapp = dbh.queryLastApp(db, app_id, content_type);
-            db.close();
+            final long begin = System.nanoTime();
+            try {
+                return dispatchMessage(app_id, content_type, intent);
+            } finally {
+                mLatency.record(System.nanoTime() - begin);
+            }
+        }
+
+        private int dispatchMessage(String app_id, String content_type, Intent intent) {
+            WapPushManDBHelper.queryData lastapp = getRoute(app_id, content_type);
+            int status = checkReceiver(app_id, content_type, lastapp);
+            if (status != 0) {
+                return status;
+            }
+            return startReceiver(lastapp, intent);
+        }
 
+        /**
+         * Returns 0 if messages can be delivered to the receiver application,
+         * or the status value of the failure.
+         */
+        private int checkReceiver(String app_id, String content_type,
+                WapPushManDBHelper.queryData lastapp) {
             if (lastapp == null) {
                 Log.w(LOG_TAG, "no receiver app found for " + app_id + ":" + content_type);
                 return WapPushManagerParams.APP_QUERY_FAILED;
@@ -196,9 +626,22 @@ public class WapPushManager extends Service {
                 }
             }
 
+            if (resolveReceiver(lastapp.appType, lastapp.getComponent()) == RECEIVER_MISSING) {
+                Log.w(LOG_TAG, "invalid name " +
+                        lastapp.packageName + "/" + lastapp.className);
+                return WapPushManagerParams.INVALID_RECEIVER_NAME;
+            }
+            return 0;
+        }
+
+        /**
+         * Starts the receiver application with the intent and returns the status value.
+         */
+        private int startReceiver(WapPushManDBHelper.queryData lastapp, Intent intent) {
+            ComponentName component = lastapp.getComponent();
             if (lastapp.appType == WapPushManagerParams.APP_TYPE_ACTIVITY) {
                 //Intent intent = new Intent(Intent.ACTION_MAIN);
-                intent.setClassName(lastapp.packageName, lastapp.className);
+                intent.setComponent(component);
                 intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
                 try {
@@ -209,9 +652,7 @@ public class WapPushManager extends Service {
                     return WapPushManagerParams.INVALID_RECEIVER_NAME;
                 }
             } else {
-                intent.setClassName(mContext, lastapp.className);
-                intent.setComponent(new ComponentName(lastapp.packageName,
-                        lastapp.className));
+                intent.setComponent(component);
                 if (mContext.startService(intent) == null) {
                     Log.w(LOG_TAG, "invalid name " +
                             lastapp.packageName + "/" + lastapp.className);
@@ -219,6 +660,80 @@ public class WapPushManager extends Service {
                 }
             }
 
+            return startedStatus(lastapp);
+        }
+
+        /**
+         * Implements IWapPushBatchManager.processMessages().  The messages are
+         * grouped by receiver in the order their receivers first appear, and
+         * each group keeps the order of its messages.  A group of several
+         * messages for a receiver with batch support is started once, with
+         * all of their intents in EXTRA_BATCH_INTENTS; any other group is
+         * started once per message.
+         */
+        int[] processMessages(String[] appIds, String[] contentTypes, Intent[] intents) {
+            if (appIds == null || contentTypes == null || intents == null
+                    || appIds.length != contentTypes.length
+                    || appIds.length != intents.length) {
+                throw new IllegalArgumentException("message arrays differ in length");
+            }
+            Log.d(LOG_TAG, "wpman processMsgs " + appIds.length);
+
+            final int count = appIds.length;
+            final int[] results = new int[count];
+            final WapPushManDBHelper.queryData[] apps = new WapPushManDBHelper.queryData[count];
+            final LinkedHashMap<String, ArrayList<Integer>> groups =
+                    new LinkedHashMap<String, ArrayList<Integer>>();
+            for (int i = 0; i < count; i++) {
+                WapPushManDBHelper.queryData lastapp = getRoute(appIds[i], contentTypes[i]);
+                results[i] = checkReceiver(appIds[i], contentTypes[i], lastapp);
+                if (results[i] != 0) {
+                    continue;
+                }
+                apps[i] = lastapp;
+                String key = lastapp.appType + ":" + lastapp.getComponent().flattenToShortString();
+                ArrayList<Integer> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(key, group);
+                }
+                group.add(i);
+            }
+
+            int starts = 0;
+            for (ArrayList<Integer> group : groups.values()) {
+                final WapPushManDBHelper.queryData first = apps[group.get(0)];
+                if (group.size() > 1 && resolveReceiver(first.appType, first.getComponent())
+                        == RECEIVER_BATCH) {
+                    Intent[] batch = new Intent[group.size()];
+                    for (int j = 0; j < batch.length; j++) {
+                        batch[j] = intents[group.get(j)];
+                    }
+                    Intent intent = new Intent(batch[0]);
+                    intent.putExtra(EXTRA_BATCH_INTENTS, batch);
+                    int status = startReceiver(first, intent);
+                    starts++;
+                    for (int i : group) {
+                        results[i] = (status & WapPushManagerParams.MESSAGE_HANDLED) != 0
+                                ? startedStatus(apps[i]) : status;
+                    }
+                } else {
+                    for (int i : group) {
+                        results[i] = startReceiver(apps[i], intents[i]);
+                        starts++;
+                    }
+                }
+            }
+
+            synchronized (this) {
+                mBatches++;
+                mBatchMessages += count;
+                mBatchStarts += starts;
+            }
+            return results;
+        }
+
+        private int startedStatus(WapPushManDBHelper.queryData lastapp) {
             return WapPushManagerParams.MESSAGE_HANDLED
                     | (lastapp.furtherProcessing == 1 ?
                             WapPushManagerParams.FURTHER_PROCESSING : 0);
@@ -236,7 +751,7 @@ public class WapPushManager extends Service {
         /**
          * Returns true if adding the package succeeded.
          */
-        public boolean addPackage(String x_app_id, String content_type,
+        public synchronized boolean addPackage(String x_app_id, String content_type,
                 String package_name, String class_name,
                 int app_type, boolean need_signature, boolean further_processing) {
             WapPushManDBHelper dbh = getDatabase(mContext);
@@ -263,32 +778,22 @@ public class WapPushManager extends Service {
             }
 
             if (insert) {
-                ContentValues values = new ContentValues();
-
-                values.put("x_wap_application", x_app_id);
-                values.put("content_type", content_type);
-                values.put("package_name", package_name);
-                values.put("class_name", class_name);
-                values.put("app_type", app_type);
-                values.put("need_signature", need_signature ? 1 : 0);
-                values.put("further_processing", further_processing ? 1 : 0);
-                values.put("install_order", sq);
-                db.insert(APPID_TABLE_NAME, null, values);
+                dbh.insertApp(db, x_app_id, content_type, package_name, class_name,
+                        app_type, need_signature, further_processing, sq);
+                updateRoute(dbh, db, x_app_id, content_type);
                 if (LOCAL_LOGV) Log.v(LOG_TAG, "add:" + x_app_id + ":" + content_type
                         + " " + package_name + "." + class_name
                         + ", newsq:" + sq);
                 ret = true;
             }
 
-            db.close();
-
             return ret;
         }
 
         /**
          * Returns true if updating the package succeeded.
          */
-        public boolean updatePackage(String x_app_id, String content_type,
+        public synchronized boolean updatePackage(String x_app_id, String content_type,
                 String package_name, String class_name,
                 int app_type, boolean need_signature, boolean further_processing) {
 
@@ -304,45 +809,30 @@ public class WapPushManager extends Service {
             WapPushManDBHelper.queryData lastapp = dbh.queryLastApp(db, x_app_id, content_type);
 
             if (lastapp == null) {
-                db.close();
                 return false;
             }
 
-            ContentValues values = new ContentValues();
-            String where = "x_wap_application=\'" + x_app_id + "\'"
-                    + " and content_type=\'" + content_type + "\'"
-                    + " and install_order=" + lastapp.installOrder;
-
-            values.put("package_name", package_name);
-            values.put("class_name", class_name);
-            values.put("app_type", app_type);
-            values.put("need_signature", need_signature ? 1 : 0);
-            values.put("further_processing", further_processing ? 1 : 0);
-
-            int num = db.update(APPID_TABLE_NAME, values, where, null);
+            int num = dbh.updateApp(db, x_app_id, content_type, package_name, class_name,
+                    app_type, need_signature, further_processing, lastapp.installOrder);
+            updateRoute(dbh, db, x_app_id, content_type);
             if (LOCAL_LOGV) Log.v(LOG_TAG, "update:" + x_app_id + ":" + content_type + " "
                     + package_name + "." + class_name
                     + ", sq:" + lastapp.installOrder);
 
-            db.close();
-
             return num > 0;
         }
 
         /**
          * Returns true if deleting the package succeeded.
          */
-        public boolean deletePackage(String x_app_id, String content_type,
+        public synchronized boolean deletePackage(String x_app_id, String content_type,
                 String package_name, String class_name) {
             WapPushManDBHelper dbh = getDatabase(mContext);
             SQLiteDatabase db = dbh.getWritableDatabase();
-            String where = "x_wap_application=\'" + x_app_id + "\'"
-                    + " and content_type=\'" + content_type + "\'"
-                    + " and package_name=\'" + package_name + "\'"
-                    + " and class_name=\'" + class_name + "\'";
-            int num_removed = db.delete(APPID_TABLE_NAME, where, null);
+            int num_removed = dbh.deleteApp(db, x_app_id, content_type,
+                    package_name, class_name);
+            updateRoute(dbh, db, x_app_id, content_type);
 
-            db.close();
             if (LOCAL_LOGV) Log.v(LOG_TAG, "deleted " + num_removed + " rows:"
                     + x_app_id + ":" + content_type + " "
                     + package_name + "." + class_name);
@@ -351,10 +841,20 @@ public class WapPushManager extends Service {
     };
 
 
+    /**
+     * The batch interface, backed by the same state as mBinder
+     */
+    private class WapPushBatchStub extends IWapPushBatchManager.Stub {
+        public int[] processMessages(String[] appIds, String[] contentTypes, Intent[] intents) {
+            return mBinder.processMessages(appIds, contentTypes, intents);
+        }
+    }
+
     /**
      * Linux IPC Binder
      */
     private final IWapPushManagerStub mBinder = new IWapPushManagerStub();
+    private final WapPushBatchStub mBatchBinder = new WapPushBatchStub();
 
     /**
      * Default constructor
@@ -364,11 +864,54 @@ public class WapPushManager extends Service {
         mBinder.mContext = this;
     }
 
+    /**
+     * Drops what the binder cached about packages that change.
+     */
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() != null) {
+                mBinder.onPackageChanged(intent.getData().getSchemeSpecificPart());
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        registerReceiver(mPackageReceiver, filter);
+    }
+
     @Override
     public IBinder onBind(Intent arg0) {
+        if (IWapPushBatchManager.class.getName().equals(arg0.getAction())) {
+            return mBatchBinder;
+        }
         return mBinder;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("WapPushManager state:");
+        mBinder.dumpState(pw);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mPackageReceiver);
+        // The database stays open while the service runs.
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
     /**
      * Application ID database instance
      */
@@ -392,8 +935,6 @@ public class WapPushManager extends Service {
         SQLiteDatabase db = dbh.getReadableDatabase();
         WapPushManDBHelper.queryData lastapp = dbh.queryLastApp(db, x_app_id, content_type);
 
-        db.close();
-
         if (lastapp == null) return false;
 
         if (lastapp.packageName.equals(package_name)
@@ -414,10 +955,7 @@ public class WapPushManager extends Service {
             String package_name, String class_name) {
         WapPushManDBHelper dbh = getDatabase(this);
         SQLiteDatabase db = dbh.getReadableDatabase();
-        boolean ret = dbh.queryLastApp(db, x_app_id, content_type) != null;
-
-        db.close();
-        return ret;
+        return dbh.queryLastApp(db, x_app_id, content_type) != null;
     }
 
 }
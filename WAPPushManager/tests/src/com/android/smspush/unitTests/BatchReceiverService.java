@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.smspush.unitTests;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.Log;
+
+import com.android.smspush.WapPushManager;
+
+/**
+ * Service type receiver application that accepts message batches
+ */
+public class BatchReceiverService extends Service {
+    private static final String LOG_TAG = "WAP PUSH";
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Parcelable[] batch = intent.getParcelableArrayExtra(WapPushManager.EXTRA_BATCH_INTENTS);
+        if (batch == null) {
+            batch = new Parcelable[] { intent };
+        }
+        Log.d(LOG_TAG, "Batch receiver service started with " + batch.length + " messages");
+
+        int[] transactionIds = new int[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            transactionIds[i] = ((Intent) batch[i]).getIntExtra("transactionId", -1);
+        }
+        DataVerify.SetLastReceivedBatch(transactionIds);
+        return START_NOT_STICKY;
+    }
+}
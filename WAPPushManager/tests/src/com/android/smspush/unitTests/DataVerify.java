@@ -33,6 +33,8 @@ public class DataVerify extends Service {
     private static final int WAIT_COUNT = 100;
     private static byte[] mLastReceivedPdu = null;
     private static boolean sDataSet = false;
+    private static int[] sLastBatch = null;
+    private static int sBatchCount = 0;
 
     private class IDataVerifyStub extends IDataVerify.Stub {
         public Context mContext;
@@ -84,12 +86,37 @@ public class DataVerify extends Service {
             return ret;
         }
 
+        /**
+         * Returns the transaction IDs of the last batch received
+         */
+        public synchronized int[] getLastBatch() {
+            int cnt = 0;
+
+            while (sLastBatch == null) {
+                // wait for the service to receive the batch.
+                try {
+                    Thread.sleep(TIME_WAIT);
+                    if (cnt++ > WAIT_COUNT) {
+                        // don't wait more than 10 sec.
+                        return null;
+                    }
+                } catch (InterruptedException e) {}
+            }
+            return sLastBatch;
+        }
+
+        public int getBatchCount() {
+            return sBatchCount;
+        }
+
         /**
          * Clear the old data. This method must be called before starting the test
          */
         public void resetData() {
             mLastReceivedPdu = null;
             sDataSet = false;
+            sLastBatch = null;
+            sBatchCount = 0;
         }
     }
 
@@ -109,6 +136,14 @@ public class DataVerify extends Service {
         sDataSet = true;
     }
 
+    /**
+     * Batch receiver application must call this method when it is started
+     */
+    public static void SetLastReceivedBatch(int[] transactionIds) {
+        sLastBatch = transactionIds;
+        sBatchCount++;
+    }
+
     @Override
     public IBinder onBind(Intent arg0) {
         return binder;
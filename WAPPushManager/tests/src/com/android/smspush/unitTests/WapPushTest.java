@@ -32,6 +32,7 @@ import com.android.internal.telephony.IWapPushManager;
 import com.android.internal.telephony.WapPushManagerParams;
 import com.android.internal.telephony.WspTypeDecoder;
 import com.android.internal.util.HexDump;
+import com.android.smspush.IWapPushBatchManager;
 import com.android.smspush.WapPushManager;
 
 import java.util.Random;
@@ -486,6 +487,17 @@ public class WapPushTest extends ServiceTestCase<WapPushManager> {
         return mWapPush;
     }
 
+    private IWapPushBatchManager mWapPushBatch = null;
+    IWapPushBatchManager getBatchInterface() {
+        if (mWapPushBatch != null) return mWapPushBatch;
+        Intent startIntent = new Intent(IWapPushBatchManager.class.getName());
+        startIntent.setClass(getContext(), WapPushManager.class);
+        IBinder service = bindService(startIntent);
+
+        mWapPushBatch = IWapPushBatchManager.Stub.asInterface(service);
+        return mWapPushBatch;
+    }
+
     /*
      * All methods need to start with 'test'.
      * Use various assert methods to pass/fail the test case.
@@ -814,6 +826,60 @@ public class WapPushTest extends ServiceTestCase<WapPushManager> {
         }
     }
 
+    /**
+     * Application ID table throughput test with thousands of registered application IDs
+     */
+    public void testAppIdThroughput() {
+        final int count = 2000;
+        final int firstAppId = 0x10000;
+        String contentType = Integer.toString(mContentTypeValue);
+        String unregisteredType = Integer.toString(mContentTypeValue + 20);
+
+        try {
+            IWapPushManager iwapman = getInterface();
+            WapPushManager wpman = getService();
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                assertTrue(iwapman.addPackage(Integer.toString(firstAppId + i),
+                        contentType, mPackageName, mClassName,
+                        WapPushManagerParams.APP_TYPE_SERVICE, false, false));
+            }
+            long added = System.nanoTime();
+
+            // looked up in the table
+            for (int i = 0; i < count; i++) {
+                assertTrue(wpman.verifyData(Integer.toString(firstAppId + i),
+                        contentType, mPackageName, mClassName,
+                        WapPushManagerParams.APP_TYPE_SERVICE, false, false));
+            }
+            long queried = System.nanoTime();
+
+            // looked up in the routing table, without starting any receiver
+            for (int i = 0; i < count; i++) {
+                assertEquals(WapPushManagerParams.APP_QUERY_FAILED,
+                        iwapman.processMessage(Integer.toString(firstAppId + i),
+                        unregisteredType, new Intent()));
+            }
+            long routed = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                assertTrue(iwapman.deletePackage(Integer.toString(firstAppId + i),
+                        contentType, mPackageName, mClassName));
+            }
+            long deleted = System.nanoTime();
+
+            Log.i(LOG_TAG, count + " app ids: add " + (added - begin) / count / 1000
+                    + "us, query " + (queried - added) / count / 1000
+                    + "us, route " + (routed - queried) / count / 1000
+                    + "us, delete " + (deleted - routed) / count / 1000 + "us");
+            assertFalse(wpman.isDataExist(Integer.toString(firstAppId),
+                    contentType, mPackageName, mClassName));
+        } catch (RemoteException e) {
+            assertTrue(false);
+        }
+    }
+
 
     protected int encodeUint32(int uint32Val, byte[] arr, int start) {
         int bit = 1;
@@ -1576,6 +1642,119 @@ public class WapPushTest extends ServiceTestCase<WapPushManager> {
         mClassName = originalClassName;
     }
 
+    /**
+     * Batch message processing test, start service
+     */
+    public void testProcessMsgBatch() {
+        int pduType = 6;
+        int tranId = 0;
+        String originalClassName = mClassName;
+        String appId = Integer.toString(mAppIdValue);
+        String otherAppId = Integer.toString(mAppIdValue + 10);
+        String contentType = Integer.toString(mContentTypeValue);
+
+        try {
+            mClassName = "com.android.smspush.unitTests.ReceiverService";
+
+            // set up data
+            IWapPushManager iwapman = getInterface();
+            iwapman.addPackage(appId, contentType, mPackageName, mClassName,
+                    WapPushManagerParams.APP_TYPE_SERVICE, false, false);
+            iwapman.addPackage(otherAppId, contentType, mPackageName, mClassName,
+                    WapPushManagerParams.APP_TYPE_SERVICE, false, true);
+
+            int[] results = getBatchInterface().processMessages(
+                    new String[] { appId, otherAppId, appId, appId },
+                    new String[] { contentType, contentType, contentType,
+                            Integer.toString(mContentTypeValue + 20) },
+                    new Intent[] { createIntent(pduType, tranId),
+                            createIntent(pduType, tranId + 1),
+                            createIntent(pduType, tranId + 2),
+                            createIntent(pduType, tranId + 3) });
+
+            assertEquals(4, results.length);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED, results[0]);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED
+                    | WapPushManagerParams.FURTHER_PROCESSING, results[1]);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED, results[2]);
+            assertEquals(WapPushManagerParams.APP_QUERY_FAILED, results[3]);
+
+            // clean up data
+            iwapman.deletePackage(appId, contentType, mPackageName, mClassName);
+            iwapman.deletePackage(otherAppId, contentType, mPackageName, mClassName);
+
+        } catch (RemoteException e) {
+            assertTrue(false);
+        }
+
+        mClassName = originalClassName;
+    }
+
+    /**
+     * Batch message processing test, batch-capable receiver
+     */
+    public void testProcessMsgBatchReceiver() {
+        int pduType = 6;
+        int tranId = 0;
+        String originalClassName = mClassName;
+        String appId = Integer.toString(mAppIdValue);
+        String otherAppId = Integer.toString(mAppIdValue + 10);
+        String contentType = Integer.toString(mContentTypeValue);
+
+        try {
+            IWapPushManager iwapman = getInterface();
+            IDataVerify dataverify = getVerifyInterface();
+
+            dataverify.resetData();
+
+            // set up data
+            mClassName = "com.android.smspush.unitTests.BatchReceiverService";
+            iwapman.addPackage(appId, contentType, mPackageName, mClassName,
+                    WapPushManagerParams.APP_TYPE_SERVICE, false, false);
+            iwapman.addPackage(otherAppId, contentType, mPackageName, mClassName,
+                    WapPushManagerParams.APP_TYPE_SERVICE, false, true);
+
+            int[] results = getBatchInterface().processMessages(
+                    new String[] { appId, otherAppId, appId, appId },
+                    new String[] { contentType, contentType, contentType,
+                            Integer.toString(mContentTypeValue + 20) },
+                    new Intent[] { createIntent(pduType, tranId),
+                            createIntent(pduType, tranId + 1),
+                            createIntent(pduType, tranId + 2),
+                            createIntent(pduType, tranId + 3) });
+
+            // clean up data
+            iwapman.deletePackage(appId, contentType, mPackageName, mClassName);
+            iwapman.deletePackage(otherAppId, contentType, mPackageName, mClassName);
+
+            assertEquals(4, results.length);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED, results[0]);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED
+                    | WapPushManagerParams.FURTHER_PROCESSING, results[1]);
+            assertEquals(WapPushManagerParams.MESSAGE_HANDLED, results[2]);
+            assertEquals(WapPushManagerParams.APP_QUERY_FAILED, results[3]);
+
+            // the three matched messages reach the receiver in one start, in order
+            int[] batch = dataverify.getLastBatch();
+            assertNotNull(batch);
+            assertEquals(3, batch.length);
+            assertEquals(tranId, batch[0]);
+            assertEquals(tranId + 1, batch[1]);
+            assertEquals(tranId + 2, batch[2]);
+
+            // give a second start, if any, the time to arrive
+            try {
+                Thread.sleep(TIME_WAIT * 10);
+            } catch (InterruptedException e) {}
+            assertEquals(1, dataverify.getBatchCount());
+
+        } catch (RemoteException e) {
+            assertTrue(false);
+        }
+
+        mClassName = originalClassName;
+    }
+
     /**
      * Message processing test, no signature
      */